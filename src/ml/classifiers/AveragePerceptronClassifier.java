@@ -1,11 +1,9 @@
 package ml.classifiers;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Set;
 
-import ml.data.DataSet;
 import ml.data.Example;
 
 /**
@@ -17,58 +15,82 @@ import ml.data.Example;
  */
 public class AveragePerceptronClassifier extends PerceptronClassifier {
 	
-	public void train(DataSet data) {
-		initializeWeights(data.getAllFeatureIndices());
+	// the running sums of the weights over all of the examples seen
+	private HashMap<Integer, Double> sumWeights;
+	private double sumB;
+	
+	// the total weight of the examples seen, overall and since the last update
+	private double total;
+	private double lastUpdate;
+	
+	@Override
+	protected void initializeWeights(Set<Integer> features){
+		super.initializeWeights(features);
 		
-		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
-
-		int total = 0;
-		int lastUpdate = 1;
+		total = 0;
+		lastUpdate = 1;
 		
 		// initialize the weights
-		HashMap<Integer, Double> sumWeights = getZeroWeights(weights.keySet());
-		double sumB = 0;
-		
-		for( int it = 0; it < iterations; it++ ){
-			Collections.shuffle(training);
+		sumWeights = getZeroWeights(weights.keySet());
+		sumB = 0;
+	}
+	
+	@Override
+	protected void trainIteration(Iterator<Example> examples){
+		while( examples.hasNext() ){
+			Example e = examples.next();
 			
-			for( Example e: training ){
-				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
-
-					// update the weights
-					for( Integer featureIndex: weights.keySet() ){
-						double featureValue = e.getFeature(featureIndex);
-						double oldSumWeight = sumWeights.get(featureIndex);
-						double oldWeight = weights.get(featureIndex);
+			if( getPrediction(e) != e.getLabel() ){
+				double label = e.getLabel();
+				double exampleWeight = e.getWeight();
+				
+				// features seen for the first time have had a weight of 0 so far
+				for( int i = 0; i < e.getFeatureCount(); i++ ){
+					int featureIndex = e.getFeatureIndexAt(i);
+					
+					if( !weights.containsKey(featureIndex) ){
+						weights.put(featureIndex, 0.0);
+						sumWeights.put(featureIndex, 0.0);
+					}
+				}
 
-						// update the aggregate weights
-						sumWeights.put(featureIndex, oldSumWeight + lastUpdate*oldWeight);
+				// update the weights
+				for( Integer featureIndex: weights.keySet() ){
+					double featureValue = e.getFeature(featureIndex);
+					double oldSumWeight = sumWeights.get(featureIndex);
+					double oldWeight = weights.get(featureIndex);
 
-						
-						// update the basic weights
-						weights.put(featureIndex, oldWeight + featureValue*label);						
-					}
+					// update the aggregate weights
+					sumWeights.put(featureIndex, oldSumWeight + lastUpdate*oldWeight);
 
-					// update sumB
-					sumB += lastUpdate*b;
-					
-					// update b
-					b += label;
 					
-					lastUpdate = 0;
+					// update the basic weights
+					weights.put(featureIndex, oldWeight + exampleWeight*featureValue*label);						
 				}
+
+				// update sumB
+				sumB += lastUpdate*b;
+				
+				// update b
+				b += exampleWeight*label;
 				
-				total++;
-				lastUpdate++;
+				lastUpdate = 0;
 			}
+			
+			// an example with weight w counts as w examples in the average
+			total += e.getWeight();
+			lastUpdate += e.getWeight();
 		}
-		
+	}
+	
+	@Override
+	protected void finishTraining(){
 		// normalize the weights and save back into the weights vector
 		for( Integer featureIndex: sumWeights.keySet() ){
 			weights.put(featureIndex, sumWeights.get(featureIndex)/total);
 		}
 		
 		b = sumB/total;
+		sumWeights = null;
 	}
 }
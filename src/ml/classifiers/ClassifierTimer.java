@@ -42,7 +42,7 @@ public class ClassifierTimer {
 	 * @param dataset
 	 */
 	private static void classifyExamples(Classifier classifier, DataSet dataset){
-		for( Example e: dataset.getData() ){
+		for( Example e: dataset ){
 			classifier.classify(e);
 		}
 	}	
@@ -1,13 +1,15 @@
 package ml.classifiers;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import ml.data.DataSet;
 import ml.data.Example;
-import ml.utils.HashMapCounter;
+import ml.data.FeatureColumns;
+import ml.data.LabelDictionary;
 
 /**
  * Decision tree classifier that supports multiclass classification.
@@ -20,19 +22,50 @@ import ml.utils.HashMapCounter;
  */
 public class DecisionTreeClassifier implements Classifier{
 	//private DataSet allData;
-	private HashMap<Integer,String> featureMap;
+	private Map<Integer,String> featureMap;
 	private Set<Integer> featureIndices;
 	private DecisionTreeNode decisionTree;
 	private int depthMax = Integer.MAX_VALUE;
 	
+	// training state: the data in column-major form, a dense id and weight for each
+	// label and a mark for each row recording whether it's at the node being split
+	private FeatureColumns columns;
+	private LabelDictionary labels;
+	private int[] rowLabels;
+	private double[] rowWeights;
+	private int[] rowMarks;
+	private int currentMark;
+	
 	public void train(DataSet data) {
-		if( data.getData().size() == 0 ){
+		if( data.size() == 0 ){
 			throw new RuntimeException("Tried to train without any data");
 		}
 		
 		featureMap = data.getFeatureMap();
 		featureIndices = data.getAllFeatureIndices();
-		decisionTree = buildTree(data.getData(), new HashSet<Integer>(), depthMax);
+		columns = new FeatureColumns(data);
+		
+		labels = data.getLabelDictionary();
+		rowLabels = new int[data.size()];
+		rowWeights = new double[data.size()];
+		int[] allRows = new int[data.size()];
+		
+		for( int i = 0; i < data.size(); i++ ){
+			rowLabels[i] = data.getLabelId(i);
+			rowWeights[i] = data.get(i).getWeight();
+			allRows[i] = i;
+		}
+		
+		rowMarks = new int[data.size()];
+		currentMark = 0;
+		
+		decisionTree = buildTree(allRows, new HashSet<Integer>(), depthMax);
+		
+		// the training structures are only needed while building the tree
+		columns = null;
+		rowLabels = null;
+		rowWeights = null;
+		rowMarks = null;
 	}
 	
 	/**
@@ -47,18 +80,19 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * Helper method for building the decision tree.
 	 * 
-	 * @param currentData the data (non-empty) to build the tree over
+	 * @param currentRows the rows (non-empty, in increasing order) to build the tree over
 	 * @param usedFeatures the features that have been used already
 	 * @param depthLimit the maximum depth we can build this tree
 	 * @return the learned decision tree
 	 */
-	private DecisionTreeNode buildTree(ArrayList<Example> currentData, HashSet<Integer> usedFeatures, int depthLimit){
-		DataMajority majority = getMajorityLabel(currentData);
+	private DecisionTreeNode buildTree(int[] currentRows, HashSet<Integer> usedFeatures, int depthLimit){
+		double[] labelCounts = countLabels(currentRows);
+		DataMajority majority = getMajorityLabel(currentRows, labelCounts);
 				
 		// base cases:
 		// 1. they're all the same label
 		// 2. we're out of features to examine
-		if( majority.majorityCount == currentData.size() ||
+		if( majority.majorityCount == majority.totalCount ||
 			usedFeatures.size() == featureIndices.size() ||
 			depthLimit == 0){
 			return new DecisionTreeNode(majority.majorityLabel, majority.confidence);
@@ -66,11 +100,11 @@ public class DecisionTreeClassifier implements Classifier{
 			// check if all examples have the same features
 					
 			// find the best feature that hasn't been used yet to split on
-			int bestFeature = getBestFeatureIndex(currentData, usedFeatures);
+			int bestFeature = getBestFeatureIndex(currentRows, labelCounts, majority.totalCount, usedFeatures);
 			
 			// bestFeature != -1
 			// split on the best feature
-			ArrayList<Example>[] splits = splitData(currentData, bestFeature);
+			int[][] splits = splitData(currentRows, bestFeature);
 			
 			// create a new decision tree node
 			DecisionTreeNode node = new DecisionTreeNode(bestFeature);
@@ -79,14 +113,14 @@ public class DecisionTreeClassifier implements Classifier{
 			featureCopy.add(bestFeature);
 			
 			// left branch
-			if( splits[0].size() == 0 ){
+			if( splits[0].length == 0 ){
 				node.setLeft(new DecisionTreeNode(majority.majorityLabel, majority.confidence));
 			}else{
 				node.setLeft(buildTree(splits[0],featureCopy, depthLimit-1));
 			}
 			
 			// right branch
-			if( splits[1].size() == 0 ){
+			if( splits[1].length == 0 ){
 				node.setRight(new DecisionTreeNode(majority.majorityLabel, majority.confidence));
 			}else{
 				node.setRight(buildTree(splits[1], featureCopy, depthLimit-1));
@@ -99,17 +133,28 @@ public class DecisionTreeClassifier implements Classifier{
 	/**
 	 * Get the best feature to split on based on training error.
 	 * 
-	 * @param currentData the current set of examples
+	 * @param currentRows the current set of examples
+	 * @param labelCounts the label counts for currentRows
+	 * @param totalCount the sum of labelCounts
 	 * @param usedFeatures which features have been used already and are NOT eligible for splitting on
 	 * @return the index of the best feature
 	 */
-	private int getBestFeatureIndex(ArrayList<Example> currentData, HashSet<Integer> usedFeatures){
+	private int getBestFeatureIndex(int[] currentRows, double[] labelCounts, double totalCount, HashSet<Integer> usedFeatures){
 		int bestFeature = -1;
 		double bestFeatureScore = 1.0; // lower is better for now
 		
+		// mark the rows at this node so that the columns can be scanned directly
+		currentMark++;
+		
+		for( int row: currentRows ){
+			rowMarks[row] = currentMark;
+		}
+		
+		double[] rightCounts = new double[labelCounts.length];
+		
 		for( int featureIndex: featureIndices){
 			if( !usedFeatures.contains(featureIndex) ){
-				double error = averageTrainingError(currentData, featureIndex);
+				double error = averageTrainingError(totalCount, labelCounts, rightCounts, featureIndex);
 									
 				if( error < bestFeatureScore ||
 					(error == bestFeatureScore && featureIndex < bestFeature )){
@@ -123,45 +168,74 @@ public class DecisionTreeClassifier implements Classifier{
 	}
 	
 	/**
-	 * Get the average training error on this data set if we split on featureIndex
+	 * Get the average training error on the rows marked with currentMark if we
+	 * split on featureIndex
 	 * 
-	 * @param data the current data
+	 * @param totalCount the (weighted) number of rows at the current node
+	 * @param labelCounts the label counts at the current node
+	 * @param rightCounts scratch space for the label counts of the right branch
 	 * @param featureIndex the feature we're considering splitting on
 	 * @return the error
 	 */
-	private double averageTrainingError(ArrayList<Example> data, int featureIndex){		
-		ArrayList<Example>[] splits = splitData(data, featureIndex);
+	private double averageTrainingError(double totalCount, double[] labelCounts, double[] rightCounts, int featureIndex){
+		Arrays.fill(rightCounts, 0);
+		
+		// the right branch is the rows at this node with a non-zero value
+		int[] rows = columns.getRows();
 		
-		int leftCount = splits[0].size() > 0 ? getMajorityLabel(splits[0]).majorityCount : 0;
-		int rightCount = splits[1].size() > 0 ? getMajorityLabel(splits[1]).majorityCount : 0;
+		for( int i = columns.columnStart(featureIndex); i < columns.columnEnd(featureIndex); i++ ){
+			int row = rows[i];
+			
+			if( rowMarks[row] == currentMark ){
+				rightCounts[rowLabels[row]] += rowWeights[row];
+			}
+		}
+		
+		double leftCount = 0;
+		double rightCount = 0;
+		
+		for( int label = 0; label < labelCounts.length; label++ ){
+			leftCount = Math.max(leftCount, labelCounts[label]-rightCounts[label]);
+			rightCount = Math.max(rightCount, rightCounts[label]);
+		}
 		
-		double accuracy = (leftCount+rightCount)/(double)data.size();
+		double accuracy = (leftCount+rightCount)/totalCount;
 		return 1-accuracy;
 	}
 	
 	/**
-	 * Split the data based on featureIndex
+	 * Split the rows based on featureIndex
 	 * 
-	 * @param data the data to be split
+	 * @param currentRows the rows to be split, in increasing order
 	 * @param featureIndex the feature to split on
-	 * @return the split of the data.  Entry 0 is the left branch data and entry 1 the right branch data.
+	 * @return the split of the data.  Entry 0 is the left branch rows and entry 1 the right branch rows.
 	 */
-	private ArrayList<Example>[] splitData(ArrayList<Example> data, int featureIndex){
-		// split the data based on this feature
-		ArrayList<Example>[] splits = new ArrayList[2];
-		splits[0] = new ArrayList<Example>();
-		splits[1] = new ArrayList<Example>();
-				
-		for( Example d: data){
-			double value = d.getFeature(featureIndex);
+	private int[][] splitData(int[] currentRows, int featureIndex){
+		// walk the rows and the (sorted) column together
+		int[] rows = columns.getRows();
+		int next = columns.columnStart(featureIndex);
+		int end = columns.columnEnd(featureIndex);
+		
+		int[] left = new int[currentRows.length];
+		int[] right = new int[currentRows.length];
+		int leftSize = 0;
+		int rightSize = 0;
+		
+		for( int row: currentRows ){
+			while( next < end && rows[next] < row ){
+				next++;
+			}
 			
-			if( value == DecisionTreeNode.LEFT_BRANCH ){
-				splits[0].add(d);
+			if( next < end && rows[next] == row ){
+				right[rightSize++] = row;
 			}else{
-				splits[1].add(d);
+				left[leftSize++] = row;
 			}
 		}
 		
+		int[][] splits = new int[2][];
+		splits[0] = Arrays.copyOf(left, leftSize);
+		splits[1] = Arrays.copyOf(right, rightSize);
 		return splits;
 	}
 	
@@ -170,29 +244,57 @@ public class DecisionTreeClassifier implements Classifier{
 	}
 	
 	/**
-	 * given the data, calculate the majority label and how many times it occurs in the data
+	 * Count how many times each label occurs in rows, counting each row by its weight
 	 * 
-	 * @param data
-	 * @return majority information from the data
+	 * @param rows
+	 * @return the count for each label id
 	 */
-	private DataMajority getMajorityLabel(ArrayList<Example> data){
-		HashMapCounter<Double> counter = new HashMapCounter<Double>();
+	private double[] countLabels(int[] rows){
+		double[] counts = new double[labels.size()];
 		
-		for( Example d: data ){
-			counter.increment(d.getLabel());
+		for( int row: rows ){
+			counts[rowLabels[row]] += rowWeights[row];
 		}
 		
+		return counts;
+	}
+	
+	/**
+	 * given the label counts, calculate the majority label and how many times it occurs in the data.
+	 * Ties go to the label that occurs first in rows.
+	 * 
+	 * @param rows
+	 * @param labelCounts the label counts for rows
+	 * @return majority information from the data
+	 */
+	private DataMajority getMajorityLabel(int[] rows, double[] labelCounts){
 		double maxLabel = 0.0;
-		int maxCount = -1;
+		double maxCount = -1;
+		double totalCount = 0;
+		
+		for( double count: labelCounts ){
+			totalCount += count;
+		}
 		
-		for( Double key: counter.keySet() ){
-			if( counter.get(key) > maxCount ){
-				maxCount = counter.get(key);
-				maxLabel = key;
+		boolean[] seen = new boolean[labelCounts.length];
+		int numSeen = 0;
+		
+		// visit the labels in order of their first occurrence
+		for( int i = 0; i < rows.length && numSeen < labelCounts.length; i++ ){
+			int label = rowLabels[rows[i]];
+			
+			if( !seen[label] ){
+				seen[label] = true;
+				numSeen++;
+				
+				if( labelCounts[label] > maxCount ){
+					maxCount = labelCounts[label];
+					maxLabel = labels.getLabel(label);
+				}
 			}
 		}
 		
-		return new DataMajority(maxLabel, maxCount, ((double)maxCount)/data.size());
+		return new DataMajority(maxLabel, maxCount, totalCount, maxCount/totalCount);
 	}
 		
 	@Override
@@ -237,12 +339,14 @@ public class DecisionTreeClassifier implements Classifier{
 	 */
 	private class DataMajority{
 		public double majorityLabel;
-		public int majorityCount;
+		public double majorityCount;
+		public double totalCount;
 		public double confidence;
 		
-		public DataMajority(double majorityLabel, int majorityCount, double confidence){
+		public DataMajority(double majorityLabel, double majorityCount, double totalCount, double confidence){
 			this.majorityLabel = majorityLabel;
 			this.majorityCount = majorityCount;
+			this.totalCount = totalCount;
 			this.confidence = confidence;
 		}
 	}	
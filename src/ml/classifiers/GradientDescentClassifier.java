@@ -1,12 +1,16 @@
 package ml.classifiers;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Random;
 
 import ml.data.*;
+import ml.utils.ShuffleBuffer;
 
 /**
  * Gradient descent classifier allowing for two different loss functions and
@@ -30,6 +34,7 @@ public class GradientDescentClassifier implements Classifier {
 	protected double b = 0; // the intersect weight
 
 	protected int iterations = 10;
+	protected int shuffleBufferSize = 100000; // for training from an ExampleSource
 
 	protected int lossFun = EXPONENTIAL_LOSS; // specifies loss function to use
 												// in training
@@ -124,6 +129,17 @@ public class GradientDescentClassifier implements Classifier {
 		this.iterations = iterations;
 	}
 
+	/**
+	 * Set how many examples train(ExampleSource) holds in memory at once to
+	 * shuffle the examples
+	 * 
+	 * @param shuffleBufferSize
+	 *            the number of examples
+	 */
+	public void setShuffleBufferSize(int shuffleBufferSize) {
+		this.shuffleBufferSize = shuffleBufferSize;
+	}
+
 	/**
 	 * Train the classifier on data using the gradient descent method with
 	 * specified loss and regularization methods.
@@ -133,41 +149,92 @@ public class GradientDescentClassifier implements Classifier {
 	 */
 	public void train(DataSet data) {
 		initializeWeights(data.getAllFeatureIndices());
+		Random random = new Random();
 
-		ArrayList<Example> training = (ArrayList<Example>) data.getData().clone();
-
+		// all of the data is in memory already, so shuffle all of it
 		for (int it = 0; it < iterations; it++) {
-			Collections.shuffle(training);
+			trainIteration(data.shuffledIterator(random));
+		}
+	}
 
-			for (Example e : training) {
-				double label = e.getLabel();
+	/**
+	 * Train the classifier on the examples of source without holding all of
+	 * them in memory. The source is re-opened for each iteration and the
+	 * examples are shuffled through a buffer of at most shuffleBufferSize
+	 * examples. The weights of features are created as the features are seen.
+	 * 
+	 * @param source
+	 *            Source of the examples to train classifier on.
+	 * @throws IOException
+	 */
+	public void train(ExampleSource source) throws IOException {
+		initializeWeights(new HashSet<Integer>());
+		Random random = new Random();
 
-				double dotProduct = 0.0;
-				for (Integer index : e.getFeatureSet()) {
-					dotProduct += e.getFeature(index) * weights.get(index);
-				}
+		for (int it = 0; it < iterations; it++) {
+			trainIteration(new ShuffleBuffer<Example>(source.open(), shuffleBufferSize, random));
+		}
+	}
 
-				// update the weights
-				// for( Integer featureIndex: weights.keySet() ){
-				double constant = computeConstant(label, dotProduct, b);
-				for (Integer featureIndex : e.getFeatureSet()) {
-					double oldWeight = weights.get(featureIndex);
-					double featureValue = e.getFeature(featureIndex);
-
-					// y_i*x_{ij}
-					double update = featureValue * label * constant;
-					double regularize = computeReg(oldWeight);
-					weights.put(featureIndex, oldWeight + update - regularize);
-				}
+	/**
+	 * Make one pass over the examples, updating the weights. The loss step for
+	 * an example with weight w is (about) that of w copies of the example in a
+	 * row, while the regularization is applied once per example.
+	 * 
+	 * @param examples
+	 *            the examples to train on
+	 */
+	protected void trainIteration(Iterator<Example> examples) {
+		while (examples.hasNext()) {
+			Example e = examples.next();
+			double label = e.getLabel();
+			double exampleWeight = e.getWeight();
+
+			double dotProduct = 0.0;
+			double normSquared = 1.0; // including the constant feature for b
+			for (int i = 0; i < e.getFeatureCount(); i++) {
+				double featureValue = e.getFeatureValueAt(i);
+				dotProduct += featureValue * getWeight(weights, e.getFeatureIndexAt(i));
+				normSquared += featureValue * featureValue;
+			}
 
-				// update b
-				double bUpdate = label * constant;
-				double bRegularize = computeReg(b);
-				b += bUpdate - bRegularize;
+			// update the weights
+			// for( Integer featureIndex: weights.keySet() ){
+			double constant = exampleWeight == 1.0 ? computeConstant(label, dotProduct, b)
+					: computeWeightedConstant(label, dotProduct, b, normSquared, exampleWeight);
+			for (int i = 0; i < e.getFeatureCount(); i++) {
+				int featureIndex = e.getFeatureIndexAt(i);
+				double oldWeight = getWeight(weights, featureIndex);
+				double featureValue = e.getFeatureValueAt(i);
+
+				// y_i*x_{ij}
+				double update = featureValue * label * constant;
+				double regularize = computeReg(oldWeight);
+				weights.put(featureIndex, oldWeight + update - regularize);
 			}
+
+			// update b
+			double bUpdate = label * constant;
+			double bRegularize = computeReg(b);
+			b += bUpdate - bRegularize;
 		}
 	}
 
+	/**
+	 * Get the weight of a feature, which is 0 for features without a weight
+	 * yet
+	 * 
+	 * @param w
+	 *            the weights
+	 * @param featureIndex
+	 *            the feature
+	 * @return the weight
+	 */
+	protected static double getWeight(HashMap<Integer, Double> w, int featureIndex) {
+		Double weight = w.get(featureIndex);
+		return weight == null ? 0.0 : weight;
+	}
+
 	/**
 	 * Compute the regularization value
 	 * 
@@ -185,6 +252,41 @@ public class GradientDescentClassifier implements Classifier {
 			return 0.0; // no regularization
 	}
 
+	/**
+	 * Compute the constant for an example with weight exampleWeight.
+	 * 
+	 * Multiplying the constant by exampleWeight takes one big step, which
+	 * overshoots (and diverges) for large weights. Instead, this is the total
+	 * of exampleWeight tiny steps in a row, which has a closed form for the
+	 * exponential and hinge losses: each step moves the margin y_i*(w*x_i + b)
+	 * by the step's constant times normSquared.
+	 * 
+	 * @param label
+	 *            label of the example being considered
+	 * @param dotProduct
+	 *            (w * x_i)
+	 * @param b
+	 *            bias term
+	 * @param normSquared
+	 *            (x_i * x_i) + 1, for the bias
+	 * @param exampleWeight
+	 *            the weight of the example
+	 * @return
+	 */
+	protected double computeWeightedConstant(double label, double dotProduct, double b, double normSquared,
+			double exampleWeight) {
+		double margin = label * (dotProduct + b);
+
+		if (lossFun == EXPONENTIAL_LOSS) {
+			// d(margin) = eta * exp(-margin) * normSquared per unit of weight
+			return Math.log1p(eta * exampleWeight * normSquared * Math.exp(-margin)) / normSquared;
+		} else if (lossFun == HINGE_LOSS) {
+			// the margin moves at eta * normSquared until it reaches 1
+			return (margin < 1) ? Math.min(eta * exampleWeight, (1 - margin) / normSquared) : 0;
+		} else // squared loss
+			return exampleWeight * computeConstant(label, dotProduct, b);
+	}
+
 	/**
 	 * Compute the constant based on the chosen loss function for a given
 	 * example
@@ -258,8 +360,8 @@ public class GradientDescentClassifier implements Classifier {
 
 		// for(Integer featureIndex: w.keySet()){
 		// only need to iterate over non-zero features
-		for (Integer featureIndex : e.getFeatureSet()) {
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
+		for (int i = 0; i < e.getFeatureCount(); i++) {
+			sum += getWeight(w, e.getFeatureIndexAt(i)) * e.getFeatureValueAt(i);
 		}
 
 		return sum;
@@ -306,8 +408,8 @@ public class GradientDescentClassifier implements Classifier {
 					for (int iter = 0; iter < 100; iter++) {
 						c.train(dss.getTrain());
 						double acc = 0.0;
-						double size = dss.getTest().getData().size();
-						for (Example ex : dss.getTest().getData()) {
+						double size = dss.getTest().size();
+						for (Example ex : dss.getTest()) {
 							// System.out.println(ex.getLabel()+ " classify: " +
 							// c.classify(ex));
 
@@ -1,26 +1,108 @@
 package ml.classifiers;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 import ml.data.DataSet;
 import ml.data.Example;
-import ml.utils.HashMapCounter;
+import ml.data.FeatureColumns;
+import ml.data.KDTree;
+import ml.data.LSHIndex;
+import ml.data.LabelDictionary;
+import ml.data.ProductQuantizer;
+import ml.utils.BoundedHeap;
 
 public class KNNClassifier implements Classifier {
+	// constants for the different distance measures
+	public static final int EUCLIDEAN_DISTANCE = 0;
+	public static final int COSINE_DISTANCE = 1; // 1 - cosine similarity, e.g. for text
+	
+	// constants for the different ways of finding the nearest neighbors
+	public static final int EXHAUSTIVE_SEARCH = 0;
+	public static final int INVERTED_INDEX_SEARCH = 1; // for sparse data, e.g. text
+	public static final int KD_TREE_SEARCH = 2; // for dense data with few features
+	public static final int LSH_SEARCH = 3; // approximate, for large data sets
+	public static final int PQ_SEARCH = 4; // approximate, with compressed examples
+	
+	// beyond this many features a KDTree prunes little and its dense copy of the data gets big
+	private static final int MAX_TREE_FEATURES = 64;
+	
+	// a ProductQuantizer learns its codebooks from dense copies of the examples
+	private static final int MAX_PQ_FEATURES = 1024;
+	
 	private DataSet train;
 	private int k = 5;
+	private int distance = EUCLIDEAN_DISTANCE;
+	private int search = EXHAUSTIVE_SEARCH;
+	
+	// the LSHIndex parameters for LSH_SEARCH (a bucket width of 0 is picked from the data)
+	private int lshTables = 10;
+	private int lshSignatureWidth = 12;
+	private double lshBucketWidth = 0.0;
+	private long lshSeed = 0;
+	
+	// the ProductQuantizer parameters for PQ_SEARCH (0 subspaces is one per 4
+	// features) and the number of candidates to compare exactly (0 for none)
+	private int pqSubspaces = 0;
+	private int pqRerank = 100;
+	private long pqSeed = 0;
+	
+	// for each training example: the squared norm, the label id and the weight
+	private double[] norms;
+	private int[] rowLabels;
+	private double[] rowWeights;
+	private LabelDictionary labels;
+	private double minWeight; // the smallest positive weight of the training examples
+	
+	// the search structures, built the first time they're used and not changed
+	// afterwards: the training rows that vote in row order and in order of their
+	// norms, the postings of each feature for INVERTED_INDEX_SEARCH, the tree
+	// for KD_TREE_SEARCH, the hash tables for LSH_SEARCH (for the distance
+	// measure lshDistance) and the codes for PQ_SEARCH (for pqDistance)
+	private int[] votingRows = null;
+	private int[] rowsByNorm;
+	private FeatureColumns index = null;
+	private KDTree tree = null;
+	private LSHIndex lsh = null;
+	private int lshDistance;
+	private ProductQuantizer pq = null;
+	private int pqDistance;
+	
+	// everything that changes during a query, so that different threads can
+	// classify at the same time
+	private ThreadLocal<QueryState> queries = new ThreadLocal<QueryState>();
 	
 	@Override
 	public void train(DataSet data) {
 		train = data;
-		// done!
+		labels = data.getLabelDictionary();
+		
+		minWeight = 1.0;
+		norms = new double[data.size()];
+		rowLabels = new int[data.size()];
+		rowWeights = new double[data.size()];
+		
+		for( int i = 0; i < data.size(); i++ ){
+			Example e = data.get(i);
+			double weight = e.getWeight();
+			norms[i] = e.squaredNorm();
+			rowLabels[i] = data.getLabelId(i);
+			rowWeights[i] = weight;
+			
+			if( weight > 0 ){
+				minWeight = Math.min(minWeight, weight);
+			}
+		}
+		
+		votingRows = null;
+		index = null;
+		tree = null;
+		lsh = null;
+		pq = null;
+		queries = new ThreadLocal<QueryState>();
 	}
 
 	@Override
 	public double classify(Example example) {
-		//PriorityQueue<Double> q = new PriorityQueue<Double>(k);
 		return getLabel(example)[0];
 	}
 	
@@ -29,67 +111,505 @@ public class KNNClassifier implements Classifier {
 		return getLabel(example)[0];
 	}
 	
+	/**
+	 * @param example
+	 * @return the prediction for example and the fraction of k voting for it, in
+	 * an array of the thread's QueryState that its next query overwrites
+	 */
 	private double[] getLabel(Example example){
-		ArrayList<ScoredExample> distances = new ArrayList<ScoredExample>();
+		QueryState state = queries.get();
 		
-		for( Example e: train.getData() ){
-			distances.add(new ScoredExample(e, getDistance(example, e)));
+		if( state == null ){
+			state = new QueryState();
+			queries.set(state);
 		}
 		
-		Collections.sort(distances);
+		// the closest examples are used until their weights add up to k, so with
+		// weights below 1 more than k neighbors may be needed
+		int capacity = Math.max((int)Math.min(train.size(), Math.ceil(k/minWeight)), 1);
+		
+		if( state.neighbors == null || state.neighbors.capacity() != capacity ){
+			state.neighbors = new BoundedHeap(capacity);
+		}
 		
-		HashMapCounter<Double> counter = new HashMapCounter<Double>();
+		BoundedHeap neighbors = state.neighbors;
+		neighbors.clear();
 		
-		for( int i = 0; i < k; i++ ){
-			counter.increment(distances.get(i).e.getLabel());
+		if( search == INVERTED_INDEX_SEARCH ){
+			searchIndex(example, state);
+		}else if( search == KD_TREE_SEARCH && distance == EUCLIDEAN_DISTANCE && train.getNumFeatures() <= MAX_TREE_FEATURES ){
+			searchTree(example, state);
+		}else if( search == LSH_SEARCH ){
+			searchLSH(example, state);
+		}else if( search == PQ_SEARCH && train.getNumFeatures() <= MAX_PQ_FEATURES ){
+			searchPQ(example, state);
+		}else{
+			searchAll(example, neighbors);
+		}
+		
+		neighbors.sort();
+		
+		double[] counts = state.counts;
+		Arrays.fill(counts, 0.0);
+		
+		// an example with weight w counts as w neighbors, so take the closest
+		// examples until their weights add up to k
+		int numNeighbors = 0;
+		double remaining = k;
+		
+		while( remaining > 0 && numNeighbors < neighbors.size() ){
+			int row = neighbors.getId(numNeighbors);
+			double vote = Math.min(rowWeights[row], remaining);
+			counts[rowLabels[row]] += vote;
+			remaining -= vote;
+			numNeighbors++;
 		}
 		
 		double maxCount = -1;
 		double maxPrediction = 0.0;
 		
-		for( Double d: counter.keySet() ){
-			int count = counter.get(d);
+		// visit the labels from the closest neighbor out, so ties go to the label
+		// with the closest neighbor
+		for( int i = 0; i < numNeighbors; i++ ){
+			int label = rowLabels[neighbors.getId(i)];
 			
-			if( count > maxCount ){
-				maxCount = count;
-				maxPrediction = d;
+			if( counts[label] > maxCount ){
+				maxCount = counts[label];
+				maxPrediction = labels.getLabel(label);
 			}
 		}
 		
-		double[] temp = new double[2];
-		temp[0] = maxPrediction;
-		temp[1] = maxCount/(double)k;
-		return temp;
+		double[] result = state.result;
+		result[0] = maxPrediction;
+		result[1] = maxCount/(double)k;
+		return result;
+	}
+	
+	/**
+	 * Find the nearest neighbors of example by comparing it to all of the
+	 * training examples
+	 * 
+	 * @param example
+	 * @param neighbors
+	 */
+	private void searchAll(Example example, BoundedHeap neighbors){
+		double norm = example.squaredNorm();
+		
+		for( int i = 0; i < train.size(); i++ ){
+			// examples with no weight never get a vote
+			if( rowWeights[i] > 0 ){
+				neighbors.offer(getDistance(example, norm, train.get(i), norms[i]), i);
+			}
+		}
 	}
 	
-	private double getDistance(Example e1, Example e2){
-		double dist = 0.0;
+	/**
+	 * Find the nearest neighbors of example with the KDTree
+	 * 
+	 * @param example
+	 * @param state
+	 */
+	private void searchTree(Example example, QueryState state){
+		KDTree tree = getTree();
 		
-		for( Integer featureNum: train.getAllFeatureIndices() ){
-			double diff = e1.getFeature(featureNum) - e2.getFeature(featureNum);
-			dist += diff*diff;
+		if( state.point == null || state.point.length != tree.getNumDimensions() ){
+			state.point = new double[tree.getNumDimensions()];
 		}
 		
-		return Math.sqrt(dist);
+		tree.search(example, state.point, state.neighbors);
 	}
 	
-	public void setK(int k){
-		this.k = k;
+	/**
+	 * Find approximate nearest neighbors of example: the nearest of the training
+	 * examples that share an LSH bucket with it.  If none do, all of the examples
+	 * are searched.
+	 * 
+	 * @param example
+	 * @param state
+	 */
+	private void searchLSH(Example example, QueryState state){
+		LSHIndex lsh = getLSH();
+		startQuery(state);
+		
+		if( state.keys == null || state.keys.length != lsh.getNumTables() || state.projections.length != lsh.getNumProjections() ){
+			state.keys = new long[lsh.getNumTables()];
+			state.projections = new double[lsh.getNumProjections()];
+		}
+		
+		int numCandidates = lsh.getCandidates(example, state.projections, state.keys, state.touchedRows, state.touchedMarks, state.queryMark);
+		double norm = example.squaredNorm();
+		
+		for( int i = 0; i < numCandidates; i++ ){
+			int row = state.touchedRows[i];
+			state.neighbors.offer(getDistance(example, norm, train.get(row), norms[row]), row);
+		}
+		
+		if( numCandidates == 0 ){
+			searchAll(example, state.neighbors);
+		}
 	}
-
-	private class ScoredExample implements Comparable<ScoredExample>{
-		public double distance;
-		public Example e;
+	
+	/**
+	 * Find approximate nearest neighbors of example from the product quantized
+	 * training examples.  The pqRerank examples with the smallest approximate
+	 * distances (at least as many as neighbors holds) are then compared to
+	 * example exactly, or with no re-ranking the approximate distances are used.
+	 * 
+	 * @param example
+	 * @param state
+	 */
+	private void searchPQ(Example example, QueryState state){
+		ProductQuantizer pq = getPQ();
+		BoundedHeap neighbors = state.neighbors;
 		
-		public ScoredExample(Example e, double distance){
-			this.e = e;
-			this.distance = distance;
+		if( state.pqWorkspace == null || state.pqWorkspace.length != pq.getWorkspaceSize() ){
+			state.pqWorkspace = new double[pq.getWorkspaceSize()];
 		}
-
-		@Override
-		public int compareTo(ScoredExample o) {
-			// we want smallest first (i.e. closest distances)
-			return Double.compare(distance, o.distance);
+		
+		if( pqRerank <= 0 ){
+			pq.search(example, state.pqWorkspace, neighbors);
+			return;
+		}
+		
+		int numCandidates = Math.max(Math.min(pqRerank, train.size()), neighbors.capacity());
+		
+		if( state.pqCandidates == null || state.pqCandidates.capacity() != numCandidates ){
+			state.pqCandidates = new BoundedHeap(numCandidates);
+		}
+		
+		BoundedHeap candidates = state.pqCandidates;
+		candidates.clear();
+		pq.search(example, state.pqWorkspace, candidates);
+		
+		double norm = example.squaredNorm();
+		
+		for( int i = 0; i < candidates.size(); i++ ){
+			int row = candidates.getId(i);
+			neighbors.offer(getDistance(example, norm, train.get(row), norms[row]), row);
+		}
+	}
+	
+	/**
+	 * Get a new query mark for the touched rows of state
+	 * 
+	 * @param state
+	 */
+	private void startQuery(QueryState state){
+		if( state.touchedMarks == null ){
+			state.touchedRows = new int[train.size()];
+			state.touchedMarks = new int[train.size()];
+		}
+		
+		if( ++state.queryMark == 0 ){
+			Arrays.fill(state.touchedMarks, 0);
+			state.queryMark = 1;
+		}
+	}
+	
+	/**
+	 * Find the nearest neighbors of example with the inverted index.  The dot
+	 * products with the rows that share features with example are accumulated
+	 * from the postings of its features.  The other rows have a dot product of
+	 * 0, so their distances only depend on their norms and they're visited in
+	 * order of distance until they can't be neighbors anymore.
+	 * 
+	 * @param example
+	 * @param state
+	 */
+	private void searchIndex(Example example, QueryState state){
+		FeatureColumns index = getIndex();
+		startQuery(state);
+		
+		if( state.dots == null ){
+			state.dots = new double[train.size()];
+		}
+		
+		double[] dots = state.dots;
+		int[] touchedRows = state.touchedRows;
+		int[] touchedMarks = state.touchedMarks;
+		int queryMark = state.queryMark;
+		
+		int numTouched = 0;
+		int[] postingRows = index.getRows();
+		double[] postingValues = index.getValues();
+		
+		for( int i = 0; i < example.getFeatureCount(); i++ ){
+			int feature = example.getFeatureIndexAt(i);
+			double value = example.getFeatureValueAt(i);
+			
+			for( int p = index.columnStart(feature); p < index.columnEnd(feature); p++ ){
+				int row = postingRows[p];
+				
+				if( touchedMarks[row] != queryMark ){
+					touchedMarks[row] = queryMark;
+					touchedRows[numTouched++] = row;
+					dots[row] = 0.0;
+				}
+				
+				dots[row] += value * postingValues[p];
+			}
+		}
+		
+		BoundedHeap neighbors = state.neighbors;
+		double norm = example.squaredNorm();
+		
+		for( int i = 0; i < numTouched; i++ ){
+			int row = touchedRows[i];
+			
+			if( rowWeights[row] > 0 ){
+				neighbors.offer(getDistance(dots[row], norm, norms[row]), row);
+			}
+		}
+		
+		// the untouched rows in order of (distance, row): by norm for Euclidean
+		// distance, and by row for cosine distance where they're all at 1
+		int[] order = distance == COSINE_DISTANCE ? votingRows : rowsByNorm;
+		
+		for( int row: order ){
+			if( touchedMarks[row] != queryMark && !neighbors.offer(getDistance(0.0, norm, norms[row]), row) ){
+				// none of the rest can be closer
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return the inverted index for INVERTED_INDEX_SEARCH, building it (and the
+	 * row orders) if necessary
+	 */
+	private synchronized FeatureColumns getIndex(){
+		if( index == null ){
+			buildRowOrders();
+			index = new FeatureColumns(train);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * @return the tree for KD_TREE_SEARCH, building it if necessary
+	 */
+	private synchronized KDTree getTree(){
+		if( tree == null ){
+			buildRowOrders();
+			tree = new KDTree(train, votingRows, norms);
+		}
+		
+		return tree;
+	}
+	
+	/**
+	 * @return the hash tables for LSH_SEARCH, building them for the current
+	 * distance measure if necessary
+	 */
+	private synchronized LSHIndex getLSH(){
+		if( lsh == null || lshDistance != distance ){
+			buildRowOrders();
+			
+			if( distance == COSINE_DISTANCE ){
+				lsh = LSHIndex.forCosine(train, votingRows, lshTables, lshSignatureWidth, lshSeed);
+			}else{
+				lsh = LSHIndex.forEuclidean(train, votingRows, lshTables, lshSignatureWidth, lshBucketWidth, lshSeed);
+			}
+			
+			lshDistance = distance;
+		}
+		
+		return lsh;
+	}
+	
+	/**
+	 * @return the codes for PQ_SEARCH, building them for the current distance
+	 * measure if necessary
+	 */
+	private synchronized ProductQuantizer getPQ(){
+		if( pq == null || pqDistance != distance ){
+			buildRowOrders();
+			
+			int numSubspaces = pqSubspaces > 0 ? pqSubspaces : (train.getNumFeatures() + 3)/4;
+			pq = new ProductQuantizer(train, votingRows, numSubspaces, distance == COSINE_DISTANCE, pqSeed);
+			pqDistance = distance;
+		}
+		
+		return pq;
+	}
+	
+	/**
+	 * Find the rows that vote, in row order and in order of their norms
+	 */
+	private void buildRowOrders(){
+		if( votingRows != null ){
+			return;
+		}
+		
+		// heap sort the voting rows by (norm, row)
+		BoundedHeap byNorm = new BoundedHeap(train.size());
+		
+		for( int i = 0; i < train.size(); i++ ){
+			if( rowWeights[i] > 0 ){
+				byNorm.offer(norms[i], i);
+			}
 		}
+		
+		byNorm.sort();
+		rowsByNorm = new int[byNorm.size()];
+		votingRows = new int[byNorm.size()];
+		
+		for( int i = 0; i < byNorm.size(); i++ ){
+			rowsByNorm[i] = byNorm.getId(i);
+			votingRows[i] = byNorm.getId(i);
+		}
+		
+		Arrays.sort(votingRows);
+	}
+	
+	/**
+	 * Get the distance between two examples from their dot product, which only
+	 * goes through the features both examples have, and their squared norms.
+	 * Euclidean distances are left squared since only their order matters.
+	 * 
+	 * @param e1
+	 * @param norm1 the squared norm of e1
+	 * @param e2
+	 * @param norm2 the squared norm of e2
+	 * @return the distance
+	 */
+	private double getDistance(Example e1, double norm1, Example e2, double norm2){
+		return getDistance(e1.dotProduct(e2), norm1, norm2);
+	}
+	
+	/**
+	 * @param dot the dot product of two examples
+	 * @param norm1 the squared norm of the first
+	 * @param norm2 the squared norm of the second
+	 * @return the distance between them
+	 */
+	private double getDistance(double dot, double norm1, double norm2){
+		if( distance == COSINE_DISTANCE ){
+			// examples without any features aren't similar to anything
+			return norm1 == 0 || norm2 == 0 ? 1.0 : 1.0 - dot/Math.sqrt(norm1*norm2);
+		}
+		
+		// ||e1 - e2||^2, which can come out slightly negative from rounding
+		return Math.max(norm1 + norm2 - 2*dot, 0.0);
+	}
+	
+	/**
+	 * Select which distance measure to use to find the nearest neighbors
+	 * 
+	 * @param distance EUCLIDEAN_DISTANCE or COSINE_DISTANCE
+	 */
+	public void setDistance(int distance){
+		this.distance = distance;
+	}
+	
+	/**
+	 * Select how to find the nearest neighbors.  INVERTED_INDEX_SEARCH only
+	 * looks at the training examples that share features with the query (plus
+	 * as few of the others as needed), which is much faster for sparse data.
+	 * KD_TREE_SEARCH prunes the training examples with a KDTree, which is much
+	 * faster for dense data with up to a few dozen features.  It only supports
+	 * Euclidean distance and data with up to MAX_TREE_FEATURES features, so
+	 * otherwise all of the examples are searched.  Either way the neighbors are
+	 * the same up to rounding.
+	 * 
+	 * LSH_SEARCH is approximate: only the training examples that share a bucket
+	 * with the query in one of the tables of an LSHIndex are compared to it, so
+	 * some of the true neighbors can be missed (see setLSH).  PQ_SEARCH is also
+	 * approximate: the training examples are compressed to a few bytes each with
+	 * a ProductQuantizer, and only the closest ones by their codes are compared
+	 * to the query exactly (see setPQ).  With a MappedDataSet this keeps a large
+	 * training set on disk except for the few examples compared.  It supports
+	 * data with up to MAX_PQ_FEATURES features, otherwise all of the examples
+	 * are searched.
+	 * 
+	 * @param search EXHAUSTIVE_SEARCH, INVERTED_INDEX_SEARCH, KD_TREE_SEARCH, LSH_SEARCH or PQ_SEARCH
+	 */
+	public void setSearch(int search){
+		this.search = search;
+	}
+	
+	/**
+	 * Set the size of the LSHIndex for LSH_SEARCH.  More tables find more of the
+	 * true neighbors and wider signatures make the buckets smaller, i.e. the
+	 * search faster.  The default is 10 tables of 12.
+	 * 
+	 * @param numTables
+	 * @param signatureWidth the number of hashes per table (at most 64 for cosine distance)
+	 */
+	public void setLSH(int numTables, int signatureWidth){
+		lshTables = numTables;
+		lshSignatureWidth = signatureWidth;
+		lsh = null;
+	}
+	
+	/**
+	 * Set the bucket width of the hashes for LSH_SEARCH with Euclidean distance,
+	 * in the units of the features.  Wider buckets find more of the true
+	 * neighbors.  By default (0) it's picked from the distances between the
+	 * training examples.
+	 * 
+	 * @param bucketWidth
+	 */
+	public void setLSHBucketWidth(double bucketWidth){
+		lshBucketWidth = bucketWidth;
+		lsh = null;
+	}
+	
+	/**
+	 * Set the compression for PQ_SEARCH.  Each training example is stored as one
+	 * byte per subspace, so more subspaces give closer approximate distances but
+	 * use more memory.  The default (0) is one subspace per 4 features.
+	 * 
+	 * @param numSubspaces
+	 */
+	public void setPQ(int numSubspaces){
+		pqSubspaces = numSubspaces;
+		pq = null;
+	}
+	
+	/**
+	 * Set how many of the closest training examples by their codes are compared
+	 * to the query exactly for PQ_SEARCH.  More find more of the true neighbors.
+	 * With 0, the neighbors are picked by the approximate distances alone and the
+	 * training examples are never read during a query.  The default is 100.
+	 * 
+	 * @param numCandidates
+	 */
+	public void setPQRerank(int numCandidates){
+		pqRerank = numCandidates;
+	}
+	
+	public void setK(int k){
+		this.k = k;
+	}
+	
+	/**
+	 * The working space for the queries of one thread
+	 */
+	private class QueryState{
+		public BoundedHeap neighbors = null;
+		public double[] counts = new double[labels.size()];
+		public double[] result = new double[2]; // the prediction and the fraction of k voting for it
+		
+		// for INVERTED_INDEX_SEARCH and LSH_SEARCH: the rows looked at for the current
+		// query (the touched rows), and for INVERTED_INDEX_SEARCH their dot products
+		// with the query
+		public int[] touchedRows;
+		public int[] touchedMarks = null; // queryMark if the row was touched by the current query
+		public int queryMark = 0;
+		public double[] dots = null;
+		
+		// for KD_TREE_SEARCH: the query as a dense point
+		public double[] point = null;
+		
+		// for LSH_SEARCH: the projections of the query and its key in each table
+		public double[] projections = null;
+		public long[] keys = null;
+		
+		// for PQ_SEARCH: the working space of the ProductQuantizer and the
+		// candidates to re-rank
+		public double[] pqWorkspace = null;
+		public BoundedHeap pqCandidates = null;
 	}
 }
@@ -6,6 +6,7 @@ import ml.data.CrossValidationSet;
 import ml.data.DataSet;
 import ml.data.DataSetSplit;
 import ml.data.Example;
+import ml.data.LabelDictionary;
 import ml.utils.*;
 
 /**
@@ -21,9 +22,10 @@ public class NBClassifier implements Classifier {
 	boolean usePosOnly = false; // tells program whether to use approach in
 								// which only positive features are used to
 								// calculate probabilities
-	ArrayList<HashMapCounter<Integer>> featureLabelCounts;
-	HashMapCounter<Double> labelCounts;
-	int allExamples;
+	double[][] featureLabelCounts; // indexed by label id, then feature index
+	double[] labelCounts; // indexed by label id
+	LabelDictionary labels;
+	double allExamples; // the total weight of the examples
 	DataSet data;
 
 	/**
@@ -56,7 +58,7 @@ public class NBClassifier implements Classifier {
 
 	/**
 	 * Store the counts for each label and feature/label combination in the data
-	 * set.
+	 * set. An example with weight w is counted w times.
 	 * 
 	 * @param data
 	 *            DataSet for which we are storing label/feature counts.
@@ -64,10 +66,15 @@ public class NBClassifier implements Classifier {
 	@Override
 	public void train(DataSet data) {
 		// store raw counts
-		allExamples = data.getData().size();
 		this.data = data;
+		labels = data.getLabelDictionary();
 		featureLabelCounts = countFeaturesandLabels(data);
 		labelCounts = countLabels(data);
+
+		allExamples = 0.0;
+		for (double count : labelCounts) {
+			allExamples += count;
+		}
 	}
 
 	/**
@@ -75,35 +82,30 @@ public class NBClassifier implements Classifier {
 	 * 
 	 * @param data
 	 *            Dataset
-	 * @return a list of lists of associations between labels, features indices
-	 *         associated with each label, and counts associated with this
-	 *         combination of labels and feature index
+	 * @return for each label id, the (weighted) number of examples with that
+	 *         label that have each feature index
 	 */
-	public ArrayList<HashMapCounter<Integer>> countFeaturesandLabels(DataSet data) {
-		ArrayList<HashMapCounter<Integer>> list = new ArrayList<HashMapCounter<Integer>>();
-		ArrayList<Example> examples = data.getData();
-		// for each label, store a list of features with associated counts
-		for (double l : data.getLabels()) {
-			HashMapCounter<Integer> hm = new HashMapCounter<Integer>();
-			// for (int f : data.getAllFeatureIndices()) {
-			// for (Example ex : examples) {
-			// Set<Integer> features = ex.getFeatureSet();
-			// for (int f : features) {
-			// if (ex.getLabel() == l) {
-			// hm.increment(f);
-			// }
-			// }
-			// }
-			// }
-			list.add(hm);
+	public double[][] countFeaturesandLabels(DataSet data) {
+		int numFeatures = 0;
+		for (int f : data.getAllFeatureIndices()) {
+			numFeatures = Math.max(numFeatures, f + 1);
+		}
+		for (Example ex : data) {
+			if (ex.getFeatureCount() > 0) {
+				numFeatures = Math.max(numFeatures, ex.getFeatureIndexAt(ex.getFeatureCount() - 1) + 1);
+			}
 		}
-		for (Example ex : examples) {
-			HashMapCounter<Integer> current = list.get((int) ex.getLabel());
-			for (int f : ex.getFeatureSet()) {
-				current.increment(f);
+
+		// for each label, store the counts of the features
+		double[][] counts = new double[data.getLabelDictionary().size()][numFeatures];
+		for (int row = 0; row < data.size(); row++) {
+			Example ex = data.get(row);
+			double[] current = counts[data.getLabelId(row)];
+			for (int i = 0; i < ex.getFeatureCount(); i++) {
+				current[ex.getFeatureIndexAt(i)] += ex.getWeight();
 			}
 		}
-		return list;
+		return counts;
 	}
 
 	/**
@@ -111,21 +113,14 @@ public class NBClassifier implements Classifier {
 	 * 
 	 * @param data
 	 *            DataSet
-	 * @return HashMap with (label, occurrences) associations
+	 * @return the (weighted) number of occurrences of each label id
 	 */
-	public HashMapCounter<Double> countLabels(DataSet data) {
-		HashMapCounter<Double> hmc = new HashMapCounter<Double>();
-		// for each label, store a count of occurences of this label in dataset
-		for (double l : data.getLabels()) {
-			for (Example ex : data.getData()) {
-				if (ex.getLabel() == l) {
-
-					hmc.increment(l);
-
-				}
-			}
+	public double[] countLabels(DataSet data) {
+		double[] counts = new double[data.getLabelDictionary().size()];
+		for (int row = 0; row < data.size(); row++) {
+			counts[data.getLabelId(row)] += data.get(row).getWeight();
 		}
-		return hmc;
+		return counts;
 	}
 
 	/**
@@ -140,12 +135,16 @@ public class NBClassifier implements Classifier {
 	public double classify(Example example) {
 		double max = -100000000000.0;
 		double curLabel = 0.0;
-		for (double label : labelCounts.keySet()) {
-			double logProb = getLogProb(example, label);
+		for (int label = 0; label < labelCounts.length; label++) {
+			// skip labels that aren't in the training data (e.g. of a split)
+			if (labelCounts[label] == 0) {
+				continue;
+			}
+			double logProb = getLogProbById(example, label);
 			// System.out.println("logprob: " + logProb);
 			if (max < logProb) {
 				max = logProb;
-				curLabel = label;
+				curLabel = labels.getLabel(label);
 			}
 		}
 		// System.out.println("max: "+ max + " curLabel: " + curLabel);
@@ -164,8 +163,10 @@ public class NBClassifier implements Classifier {
 	public double confidence(Example example) {
 		// store all log probabilities in an ArrayList and return the maximum
 		ArrayList<Double> probs = new ArrayList<Double>();
-		for (double label : labelCounts.keySet()) {
-			probs.add(getLogProb(example, label));
+		for (int label = 0; label < labelCounts.length; label++) {
+			if (labelCounts[label] > 0) {
+				probs.add(getLogProbById(example, label));
+			}
 		}
 		return Collections.max(probs);
 	}
@@ -181,24 +182,38 @@ public class NBClassifier implements Classifier {
 	 * @return p(x_1, x_2,...,x_m, y)
 	 */
 	public double getLogProb(Example ex, double label) {
-		double labelCount = labelCounts.get(label);
-		double probY = labelCount / (double) allExamples;// labelCounts.keySet().size();
-		Set<Integer> features = ex.getFeatureSet();
+		return getLogProbById(ex, labels.getId(label));
+	}
+
+	/**
+	 * Return the log probability of the example with the label under the
+	 * current trained model.
+	 * 
+	 * @param ex
+	 *            Example for which to calculate log probability.
+	 * @param labelId
+	 *            Id of the label for which to calculate log probability.
+	 * @return p(x_1, x_2,...,x_m, y)
+	 */
+	private double getLogProbById(Example ex, int labelId) {
+		double labelCount = labelCounts[labelId];
+		double probY = labelCount / allExamples;// labelCounts.keySet().size();
 		if (usePosOnly) {
 			double sum = 0.0;
-			for (int f : features) {
-				sum += Math.log(getFeatureProb(f, label));
+			for (int i = 0; i < ex.getFeatureCount(); i++) {
+				sum += Math.log(getFeatureProbById(ex.getFeatureIndexAt(i), labelId));
 			}
 			return Math.log(probY) + sum;
 		} else {
 			// run through all features in dataset and add 1-p(xi|y) to sum if
 			// feature not in ex feature set
+			Set<Integer> features = ex.getFeatureSet();
 			double sum = 0.0;
 			for (int f : data.getAllFeatureIndices()) {
 				if (features.contains(f)) {
-					sum += Math.log(getFeatureProb(f, label));
+					sum += Math.log(getFeatureProbById(f, labelId));
 				} else {
-					sum += Math.log(1 - getFeatureProb(f, label));
+					sum += Math.log(1 - getFeatureProbById(f, labelId));
 				}
 			}
 			return Math.log(probY) + sum;
@@ -213,8 +228,20 @@ public class NBClassifier implements Classifier {
 	 * @return
 	 */
 	public double getFeatureProb(int featureIndex, double label) {
-		double labelCount = labelCounts.get(label);
-		double featureLabelCount = featureLabelCounts.get((int) label).get(featureIndex);
+		return getFeatureProbById(featureIndex, labels.getId(label));
+	}
+
+	/**
+	 * Return the probability of a given feature index given a label id
+	 * 
+	 * @param featureIndex
+	 * @param labelId
+	 * @return
+	 */
+	private double getFeatureProbById(int featureIndex, int labelId) {
+		double labelCount = labelCounts[labelId];
+		double[] counts = featureLabelCounts[labelId];
+		double featureLabelCount = featureIndex < counts.length ? counts[featureIndex] : 0;
 		// P(x_i | y) = P(x_i and y) + lambda / P(y) + (# of possible values of
 		// x_i) * lambda
 		double prob = (featureLabelCount + lambda) / (labelCount + 2 * lambda);// (double)
@@ -236,8 +263,8 @@ public class NBClassifier implements Classifier {
 			// for (int iter = 0; iter < 100; iter++) {
 			c.train(dss.getTrain());
 			double acc = 0.0;
-			double size = dss.getTest().getData().size();
-			for (Example ex : dss.getTest().getData()) {
+			double size = dss.getTest().size();
+			for (Example ex : dss.getTest()) {
 				if (c.classify(ex) == ex.getLabel()) {
 					acc += 1.0;
 				}
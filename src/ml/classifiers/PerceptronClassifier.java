@@ -1,13 +1,18 @@
 package ml.classifiers;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Random;
 
 import ml.data.DataSet;
 import ml.data.Example;
+import ml.data.ExampleSource;
+import ml.utils.ShuffleBuffer;
 
 /**
  * Basic perceptron classifier
@@ -20,6 +25,7 @@ public class PerceptronClassifier implements Classifier {
 	protected double b = 0; // the intersect weight
 	
 	protected int iterations = 10;
+	protected int shuffleBufferSize = 100000; // for training from an ExampleSource
 		
 	/**
 	 * Get a weight vector over the set of features with each weight
@@ -57,33 +63,95 @@ public class PerceptronClassifier implements Classifier {
 		this.iterations = iterations;
 	}
 	
+	/**
+	 * Set how many examples train(ExampleSource) holds in memory at once to
+	 * shuffle the examples
+	 * 
+	 * @param shuffleBufferSize
+	 */
+	public void setShuffleBufferSize(int shuffleBufferSize){
+		this.shuffleBufferSize = shuffleBufferSize;
+	}
+	
 	public void train(DataSet data) {
 		initializeWeights(data.getAllFeatureIndices());
+		Random random = new Random();
 		
-		ArrayList<Example> training = (ArrayList<Example>)data.getData().clone();
+		// all of the data is in memory already, so shuffle all of it
+		for( int it = 0; it < iterations; it++ ){
+			trainIteration(data.shuffledIterator(random));
+		}
+		
+		finishTraining();
+	}
+	
+	/**
+	 * Train on the examples of source without holding all of them in memory.  The
+	 * source is re-opened for each iteration and the examples are shuffled through
+	 * a buffer of at most shuffleBufferSize examples.  The weights of features are
+	 * created as the features are seen.
+	 * 
+	 * @param source
+	 * @throws IOException
+	 */
+	public void train(ExampleSource source) throws IOException {
+		initializeWeights(new HashSet<Integer>());
+		Random random = new Random();
 		
 		for( int it = 0; it < iterations; it++ ){
-			Collections.shuffle(training);
+			trainIteration(new ShuffleBuffer<Example>(source.open(), shuffleBufferSize, random));
+		}
+		
+		finishTraining();
+	}
+	
+	/**
+	 * Make one pass over the examples, updating the weights.  A mistake on an
+	 * example with weight w updates the weights w times as much.
+	 * 
+	 * @param examples
+	 */
+	protected void trainIteration(Iterator<Example> examples){
+		while( examples.hasNext() ){
+			Example e = examples.next();
 			
-			for( Example e: training ){
-				if( getPrediction(e) != e.getLabel() ){
-					double label = e.getLabel();
-					
-					// update the weights
-					//for( Integer featureIndex: weights.keySet() ){
-					for( Integer featureIndex: e.getFeatureSet() ){
-						double oldWeight = weights.get(featureIndex);
-						double featureValue = e.getFeature(featureIndex);
-						
-						weights.put(featureIndex, oldWeight + featureValue*label);
-					}
+			if( getPrediction(e) != e.getLabel() ){
+				double label = e.getLabel();
+				double exampleWeight = e.getWeight();
+				
+				// update the weights
+				//for( Integer featureIndex: weights.keySet() ){
+				for( int i = 0; i < e.getFeatureCount(); i++ ){
+					int featureIndex = e.getFeatureIndexAt(i);
+					double oldWeight = getWeight(weights, featureIndex);
+					double featureValue = e.getFeatureValueAt(i);
 					
-					// update b
-					b += label;					
+					weights.put(featureIndex, oldWeight + exampleWeight*featureValue*label);
 				}
+				
+				// update b
+				b += exampleWeight*label;					
 			}
 		}
 	}
+	
+	/**
+	 * Called once all of the training iterations are done
+	 */
+	protected void finishTraining(){
+	}
+	
+	/**
+	 * Get the weight of a feature, which is 0 for features without a weight yet
+	 * 
+	 * @param w
+	 * @param featureIndex
+	 * @return the weight
+	 */
+	protected static double getWeight(HashMap<Integer, Double> w, int featureIndex){
+		Double weight = w.get(featureIndex);
+		return weight == null ? 0.0 : weight;
+	}
 
 	@Override
 	public double classify(Example example) {
@@ -131,8 +199,8 @@ public class PerceptronClassifier implements Classifier {
 		
 		//for(Integer featureIndex: w.keySet()){
 		// only need to iterate over non-zero features
-		for( Integer featureIndex: e.getFeatureSet()){
-			sum += w.get(featureIndex) * e.getFeature(featureIndex);
+		for( int i = 0; i < e.getFeatureCount(); i++ ){
+			sum += getWeight(w, e.getFeatureIndexAt(i)) * e.getFeatureValueAt(i);
 		}
 		
 		return sum;
@@ -0,0 +1,321 @@
+package ml.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Base class for the readers that parse examples directly out of the bytes of
+ * a file, one line per example.  Lines are found in a reusable buffer and
+ * subclasses parse them in place (e.g. with parseDouble), so no Strings are
+ * created per line or per value.  An IOException while reading is thrown from
+ * hasNext/next as an UncheckedIOException, rather than ending the input early.
+ * 
+ * @author dkauchak
+ */
+abstract class ByteLineReader implements Iterator<Example>{
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	// exact powers of ten that can be represented as doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	private ReadableByteChannel in; // source to be reading data from
+	
+	// the bytes read so far that haven't been consumed are buffer[position] to buffer[limit]
+	private ByteBuffer byteBuffer;
+	protected byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+	
+	// how many more bytes we're allowed to read from in
+	private long bytesLeft;
+	private long bytesRead = 0;
+	
+	// the bounds of the next line in buffer (lineStart == -1 if no line)
+	protected int lineStart = -1;
+	protected int lineEnd;
+	
+	/**
+	 * Create a new reader that reads at most maxBytes from in.  The data read
+	 * must end at the end of a line.
+	 * 
+	 * @param in
+	 * @param maxBytes the number of bytes to read
+	 */
+	protected ByteLineReader(ReadableByteChannel in, long maxBytes){
+		this.in = in;
+		bytesLeft = maxBytes;
+		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer = byteBuffer.array();
+	}
+	
+	/**
+	 * Skip any lines at the beginning that start with # and read the
+	 * header line.
+	 * 
+	 * @return the header line, or null if there is no header
+	 */
+	public String readHeader(){
+		findNextLine();
+		
+		while( lineStart != -1 && lineEnd > lineStart && buffer[lineStart] == '#' ){
+			consumeLine();
+			findNextLine();
+		}
+		
+		if( lineStart == -1 ){
+			return null;
+		}
+		
+		String header = new String(buffer, lineStart, lineEnd-lineStart, Charset.defaultCharset());
+		consumeLine();
+		return header;
+	}
+	
+	/**
+	 * Get the number of bytes of the input that have been consumed, e.g. after
+	 * readHeader this is where the data starts.
+	 * 
+	 * @return the number of bytes consumed
+	 */
+	public long getPosition(){
+		return bytesRead - (limit - position);
+	}
+	
+	@Override
+	public boolean hasNext() {
+		findNextLine();
+		return lineStart != -1;
+	}
+	
+	@Override
+	public void remove() {
+		// OPTIONAL, so we won't implement
+	}
+	
+	/**
+	 * Mark the current line as read
+	 */
+	protected void consumeLine(){
+		position = lineEnd;
+		
+		// skip the line terminator (\n, \r or \r\n)
+		if( position < limit && buffer[position] == '\r' ){
+			position++;
+		}
+		
+		if( position < limit && buffer[position] == '\n' ){
+			position++;
+		}
+		
+		lineStart = -1;
+	}
+	
+	/**
+	 * Make sure lineStart and lineEnd point at the next non-empty line, reading
+	 * more data as needed.  Sets lineStart to -1 if there are no more lines.
+	 */
+	protected void findNextLine(){
+		if( lineStart != -1 ){
+			return;
+		}
+		
+		while( true ){
+			// skip any empty lines.  This also takes care of the \n of a \r\n that
+			// was split across reads.
+			while( position < limit && (buffer[position] == '\n' || buffer[position] == '\r') ){
+				position++;
+			}
+			
+			if( position < limit ){
+				int end = position;
+				
+				while( end < limit && buffer[end] != '\n' && buffer[end] != '\r' ){
+					end++;
+				}
+				
+				// we have a full line if we found the end of it or there's no more input
+				if( end < limit || endOfInput ){
+					lineStart = position;
+					lineEnd = end;
+					return;
+				}
+			}else if( endOfInput ){
+				return;
+			}
+			
+			fill();
+		}
+	}
+	
+	/**
+	 * Read more data into the buffer, keeping the unconsumed bytes
+	 * 
+	 * @return whether any data was read
+	 * @throws UncheckedIOException if the read fails
+	 */
+	private boolean fill(){
+		if( endOfInput ){
+			return false;
+		}
+		
+		// move the unconsumed bytes to the front of the buffer, growing it if
+		// a single line doesn't fit
+		int remaining = limit-position;
+		
+		if( remaining == buffer.length ){
+			ByteBuffer bigger = ByteBuffer.allocate(buffer.length*2);
+			System.arraycopy(buffer, position, bigger.array(), 0, remaining);
+			byteBuffer = bigger;
+			buffer = bigger.array();
+		}else{
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+		}
+		
+		position = 0;
+		limit = remaining;
+		
+		try {
+			byteBuffer.clear();
+			byteBuffer.position(limit);
+			byteBuffer.limit((int)Math.min(buffer.length, limit + bytesLeft));
+			
+			int read = byteBuffer.hasRemaining() ? in.read(byteBuffer) : -1;
+			
+			if( read == -1 ){
+				endOfInput = true;
+				return false;
+			}
+			
+			limit += read;
+			bytesLeft -= read;
+			bytesRead += read;
+			return true;
+		} catch (IOException e) {
+			endOfInput = true;
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Parse the number in bytes[start] to bytes[end] the same way as
+	 * Double.parseDouble, but without creating a String.  Plain decimal numbers
+	 * are handled directly; anything else (long mantissas, large exponents,
+	 * NaN, hex, etc.) falls back to Double.parseDouble.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return the parsed value
+	 */
+	static double parseDouble(byte[] bytes, int start, int end){
+		// Double.parseDouble ignores leading and trailing whitespace
+		int i = start;
+		
+		while( i < end && (bytes[i] & 0xff) <= ' ' ){
+			i++;
+		}
+		
+		int last = end;
+		
+		while( last > i && (bytes[last-1] & 0xff) <= ' ' ){
+			last--;
+		}
+		
+		boolean negative = false;
+		
+		if( i < last && (bytes[i] == '-' || bytes[i] == '+') ){
+			negative = bytes[i] == '-';
+			i++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0; // significant digits in mantissa
+		int exponent = 0;
+		boolean anyDigits = false;
+		
+		while( i < last && bytes[i] >= '0' && bytes[i] <= '9' ){
+			mantissa = mantissa*10 + (bytes[i]-'0');
+			
+			if( mantissa != 0 ){
+				digits++;
+			}
+			
+			anyDigits = true;
+			i++;
+		}
+		
+		if( i < last && bytes[i] == '.' ){
+			i++;
+			
+			while( i < last && bytes[i] >= '0' && bytes[i] <= '9' ){
+				mantissa = mantissa*10 + (bytes[i]-'0');
+				
+				if( mantissa != 0 ){
+					digits++;
+				}
+				
+				exponent--;
+				anyDigits = true;
+				i++;
+			}
+		}
+		
+		if( anyDigits && i < last && (bytes[i] == 'e' || bytes[i] == 'E') ){
+			i++;
+			boolean negativeExponent = false;
+			
+			if( i < last && (bytes[i] == '-' || bytes[i] == '+') ){
+				negativeExponent = bytes[i] == '-';
+				i++;
+			}
+			
+			int exponentValue = 0;
+			boolean anyExponentDigits = false;
+			
+			while( i < last && bytes[i] >= '0' && bytes[i] <= '9' && exponentValue < 10000 ){
+				exponentValue = exponentValue*10 + (bytes[i]-'0');
+				anyExponentDigits = true;
+				i++;
+			}
+			
+			if( !anyExponentDigits ){
+				return slowParseDouble(bytes, start, end);
+			}
+			
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		
+		// the mantissa and power of ten are both exact, so a single multiplication or
+		// division is correctly rounded
+		if( !anyDigits || i != last || digits > 15 ||
+			exponent < -22 || exponent > 22 ){
+			return slowParseDouble(bytes, start, end);
+		}
+		
+		double value = (double)mantissa;
+		
+		if( exponent < 0 ){
+			value /= POWERS_OF_TEN[-exponent];
+		}else{
+			value *= POWERS_OF_TEN[exponent];
+		}
+		
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parse with Double.parseDouble
+	 */
+	private static double slowParseDouble(byte[] bytes, int start, int end){
+		return Double.parseDouble(new String(bytes, start, end-start, StandardCharsets.ISO_8859_1));
+	}
+}
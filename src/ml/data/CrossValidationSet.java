@@ -1,19 +1,26 @@
 package ml.data;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
 
 /**
  * Data set for storing and retrieving an n-fold cross validation data set.
  * 
+ * The order of the examples (shuffled for a random cross-validation) and the
+ * split boundaries are decided once when the cross validation set is created, so
+ * the test sets of the splits are disjoint and cover all of the examples.  The
+ * splits are views over the data set that share its label dictionary, which is
+ * filled in when the cross validation set is created so that the splits only
+ * read it.  They can then be retrieved and trained on concurrently, e.g. by
+ * evaluators running on different threads, as long as the data set isn't changed.
+ * 
  * @author dkauchak
  *
  */
 public class CrossValidationSet {
-	private DataSet dataset;
-	private int numSplits;
-	private boolean randomize = false;
+	private final DataSet dataset;
+	private final int numSplits;
+	private final int[] rows; // the row order the splits are taken from
+	private final int[] splitStarts; // the test examples of split i are rows splitStarts[i] to splitStarts[i+1]-1
 	
 	/**
 	 * Generate a cross-validation with numSplits on dataset
@@ -22,8 +29,7 @@ public class CrossValidationSet {
 	 * @param numSplits the number of splits for the data set
 	 */
 	public CrossValidationSet(DataSet dataset, int numSplits){
-		this.dataset = dataset;
-		this.numSplits = numSplits;
+		this(dataset, numSplits, false);
 	}
 	
 	/**
@@ -36,7 +42,122 @@ public class CrossValidationSet {
 	public CrossValidationSet(DataSet dataset, int numSplits, boolean randomize){
 		this.dataset = dataset;
 		this.numSplits = numSplits;
-		this.randomize = randomize;
+		
+		// label the examples now, rather than by the first split trained on
+		dataset.getLabelDictionary();
+		
+		if( randomize ){
+			rows = DataSetView.shuffledRows(dataset.size(), new Random(System.nanoTime()));
+		}else{
+			rows = new int[dataset.size()];
+			
+			for( int i = 0; i < rows.length; i++ ){
+				rows[i] = i;
+			}
+		}
+		
+		splitStarts = evenSplits(rows.length, numSplits);
+	}
+	
+	/**
+	 * Generate a reproducible random cross-validation with numSplits on dataset.
+	 * The same seed always gives the same splits.
+	 * 
+	 * @param dataset
+	 * @param numSplits the number of splits for the data set
+	 * @param seed the seed for shuffling the data
+	 * @param stratify whether each split should have (as close as possible) the same
+	 * proportion of each label as the whole data set
+	 */
+	public CrossValidationSet(DataSet dataset, int numSplits, long seed, boolean stratify){
+		this.dataset = dataset;
+		this.numSplits = numSplits;
+		Random random = new Random(seed);
+		
+		// label the examples now, rather than by the first split trained on
+		dataset.getLabelDictionary();
+		
+		if( stratify ){
+			rows = new int[dataset.size()];
+			splitStarts = new int[numSplits+1];
+			stratifiedRows(random);
+		}else{
+			rows = DataSetView.shuffledRows(dataset.size(), random);
+			splitStarts = evenSplits(rows.length, numSplits);
+		}
+	}
+	
+	/**
+	 * Split size examples into numSplits consecutive ranges
+	 * 
+	 * @param size
+	 * @param numSplits
+	 * @return the start of each range, followed by size
+	 */
+	private static int[] evenSplits(int size, int numSplits){
+		// this tends to make the last split more off-sized, but it will suffice
+		int partSize = (int)(size/numSplits);
+		int[] starts = new int[numSplits+1];
+		
+		for( int i = 0; i < numSplits; i++ ){
+			starts[i] = partSize*i;
+		}
+		
+		starts[numSplits] = size;
+		return starts;
+	}
+	
+	/**
+	 * Fill in rows and splitStarts so that the examples of each label are dealt out
+	 * round robin to the splits, after shuffling the examples of each label
+	 * 
+	 * @param random
+	 */
+	private void stratifiedRows(Random random){
+		// group the rows by label id, i.e. with the labels in order of first
+		// occurrence: count the rows of each label, then fill them in in row order
+		int numLabels = dataset.getLabelDictionary().size();
+		int[] labelStarts = new int[numLabels+1];
+		
+		for( int i = 0; i < rows.length; i++ ){
+			labelStarts[dataset.getLabelId(i)+1]++;
+		}
+		
+		for( int label = 0; label < numLabels; label++ ){
+			labelStarts[label+1] += labelStarts[label];
+		}
+		
+		int[] grouped = new int[rows.length];
+		int[] nextRow = labelStarts.clone();
+		
+		for( int i = 0; i < rows.length; i++ ){
+			grouped[nextRow[dataset.getLabelId(i)]++] = i;
+		}
+		
+		// lay the shuffled groups end to end and deal them out, i.e. the j-th
+		// row goes to split j % numSplits
+		int[] dealt = new int[rows.length];
+		int j = 0;
+		
+		for( int label = 0; label < numLabels; label++ ){
+			int start = labelStarts[label];
+			int[] order = DataSetView.shuffledRows(labelStarts[label+1] - start, random);
+			
+			for( int i = 0; i < order.length; i++ ){
+				dealt[j++] = grouped[start + order[i]];
+			}
+		}
+		
+		for( int split = 0; split < numSplits; split++ ){
+			int count = split < rows.length ? (rows.length - split + numSplits - 1)/numSplits : 0;
+			splitStarts[split+1] = splitStarts[split] + count;
+		}
+		
+		int[] next = splitStarts.clone();
+		
+		for( int i = 0; i < dealt.length; i++ ){
+			rows[next[i % numSplits]++] = dealt[i];
+		}
 	}
 	
 	/**
@@ -59,31 +180,12 @@ public class CrossValidationSet {
 		if( splitNum >= numSplits || splitNum < 0){
 			return null;
 		}else{
-			ArrayList<Example> data;
+			int begin = splitStarts[splitNum];
+			int end = splitStarts[splitNum+1];
 			
-			if( randomize ){
-				data = (ArrayList<Example>)dataset.getData().clone();
-				Collections.shuffle(data, new Random(System.nanoTime()));
-			}else{
-				data = dataset.getData();
-			}
-			
-			// this tends to make the last split more off-sized, but it will suffice
-			int partSize = (int)(data.size()/numSplits);
-			int begin = partSize*splitNum;
-			int end = splitNum == numSplits-1 ? data.size() : partSize*(splitNum+1);
-			
-			DataSet train = new DataSet(dataset.getFeatureMap());
-			DataSet test = new DataSet(dataset.getFeatureMap());
-			
-			for( int i = 0; i < data.size(); i++ ){
-				// check if we're in the test range
-				if( i >= begin && i < end ){
-					test.addData(data.get(i));
-				}else{
-					train.addData(data.get(i));
-				}
-			}
+			// the test examples are the range [begin, end), the training examples the rest
+			DataSet train = new DataSetView(dataset, rows, 0, begin, end, rows.length);
+			DataSet test = new DataSetView(dataset, rows, begin, end);
 			
 			return new DataSetSplit(train, test);
 		}
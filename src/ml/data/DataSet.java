@@ -1,31 +1,50 @@
 package ml.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 
+import ml.utils.IndexRange;
+
 /**
  * A collections of examples representing an entire data set.
  * 
+ * The examples can be accessed by position with size() and get(i) or iterated
+ * over directly.  Splits and cross-validation folds are views over the examples of
+ * this data set rather than copies (see DataSetView).
+ * 
  * @author dkauchak
  */
-public class DataSet {
+public class DataSet implements Iterable<Example>, ExampleSource {
 	private ArrayList<Example> data = new ArrayList<Example>(); // the data/examples in this data set
-	// the mapping from feature indices to the name of the feature
-	private HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
-	private HashSet<Double> labels = new HashSet<Double>();
+	// the mapping from feature indices to the name of the feature, shared with the
+	// splits and copies of this data set
+	private FeatureNames featureNames = FeatureNames.unnamed(0);
+	
+	// the distinct labels and the label id of each example, updated on demand for
+	// the examples added since the last update
+	private LabelDictionary labels = new LabelDictionary();
+	private int[] labelIds = new int[0];
+	private int numLabeled = 0;
+	
+	// if the data set has been packed, the CSR matrix backing the examples
+	private CSRMatrix matrix = null;
 	
 	// some constants for different file types
 	public static final int CSVFILE = 0;
 	public static final int TEXTFILE = 1;
+	public static final int SPARSEFILE = 2; // label index:value ..., features numbered from 0
+	public static final int LIBSVMFILE = 3; // the same, but features numbered from 1
 
 	/**
 	 * Create a new data set.  
@@ -34,42 +53,152 @@ public class DataSet {
 	 * @param fileType what type of file, using the class defined constants (e.g. CSVFILE)
 	 */
 	public DataSet(String filename, int fileType){
+		load(filename, fileType, 1);
+	}
+	
+	/**
+	 * Create a new data set, reading the file with multiple threads.  The
+	 * examples are in the same order as when reading with a single thread.
+	 * 
+	 * @param filename the location of the file
+	 * @param fileType what type of file, using the class defined constants (e.g. CSVFILE)
+	 * @param numThreads how many threads to read the file with
+	 */
+	public DataSet(String filename, int fileType, int numThreads){
+		load(filename, fileType, numThreads);
+	}
+	
+	/**
+	 * Create a new data set, optionally using a binary cache of the file.  If the
+	 * cache (filename + DataSetCache.SUFFIX) is up to date with the file, the data
+	 * is read from the cache.  Otherwise the file is read and the cache is written
+	 * for next time.  Data sets read through the cache are packed (see pack()).
+	 * 
+	 * @param filename the location of the file
+	 * @param fileType what type of file, using the class defined constants (e.g. CSVFILE)
+	 * @param useCache whether to use the binary cache
+	 */
+	public DataSet(String filename, int fileType, boolean useCache){
+		if( !useCache ){
+			load(filename, fileType, 1);
+			return;
+		}
+		
+		File source = new File(filename);
+		DataSetCache cache = DataSetCache.forSource(filename);
+		
+		if( cache.isCurrent(source, fileType) ){
+			try {
+				DataSet cached = cache.read();
+				data = cached.data;
+				featureNames = cached.featureNames;
+				matrix = cached.matrix;
+				return;
+			} catch (IOException e) {
+				// fall back to reading the file
+				e.printStackTrace();
+			}
+		}
+		
+		load(filename, fileType, 1);
+		
+		try {
+			cache.write(this, source, fileType);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Create a new data set from all of the examples of reader.  The features
+	 * don't have names and are indexed from 0 to numFeatures-1, e.g. the examples
+	 * of a HashingTextDataReader.
+	 * 
+	 * @param reader
+	 * @param numFeatures the number of features
+	 */
+	public DataSet(Iterator<Example> reader, int numFeatures){
+		featureNames = FeatureNames.unnamed(numFeatures);
+		initialize(reader);
+	}
+	
+	/**
+	 * Constructs a packed data set from the rows of matrix
+	 * 
+	 * @param matrix
+	 * @param featureNames
+	 */
+	DataSet(CSRMatrix matrix, FeatureNames featureNames){
+		this.featureNames = featureNames;
+		this.matrix = matrix;
+		data = new ArrayList<Example>(matrix.numRows());
+		
+		for( int i = 0; i < matrix.numRows(); i++ ){
+			data.add(matrix.getRow(i));
+		}
+	}
+	
+	/**
+	 * Read the data from filename into this data set
+	 * 
+	 * @param filename the location of the file
+	 * @param fileType what type of file, using the class defined constants (e.g. CSVFILE)
+	 * @param numThreads how many threads to read the file with
+	 */
+	private void load(String filename, int fileType, int numThreads){
 		if( fileType == CSVFILE ){
 			int numColumns = -1;
 
 			// figure out how many columns there are then call
-			try {
-				BufferedReader in = new BufferedReader(new FileReader(filename));
-
+			try (FileChannel in = FileChannel.open(Paths.get(filename))) {
+				FastCSVDataReader reader = new FastCSVDataReader(in, 0);
+				
 				// ignore any lines at the beginning that start with #
-				String line = in.readLine();
-
-				while( line.startsWith("#")){
-					line = in.readLine();
-				}
+				String line = reader.readHeader();
 				
 				// parse the headers
 				String[] headers = line.split(",");
 				int labelIndex = headers.length-1;					
-				int featureIndex = 0;
+				featureNames = new FeatureNames(Arrays.copyOf(headers, labelIndex));
 					
-				for( int i = 0; i < headers.length; i++ ){
-					if( i != labelIndex ){
-						featureMap.put(featureIndex, headers[i]);
-						featureIndex++;
-					}
+				if( numThreads > 1 ){
+					ParallelCSVLoader loader = new ParallelCSVLoader(filename, reader.getPosition(), labelIndex, numThreads);
+					addData(loader.load());
+				}else{
+					reader.setLabelIndex(labelIndex);
+					initialize(reader);
 				}
-					
-				CSVDataReader reader = new CSVDataReader(in, labelIndex);
-				initialize(reader);
-			} catch (IOException e) {
+			} catch (IOException | UncheckedIOException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}else if( fileType == TEXTFILE ){
-			TextDataReader reader = new TextDataReader(filename);
-			initialize(reader);
-			featureMap = reader.getFeatureMap();
+			if( numThreads > 1 ){
+				try {
+					ParallelTextLoader loader = new ParallelTextLoader(filename, numThreads);
+					addData(loader.load());
+					featureNames = loader.getFeatureMap();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}else{
+				try (TextDataReader reader = new TextDataReader(filename)) {
+					initialize(reader);
+					featureNames = reader.getFeatureMap();
+				} catch (IOException | UncheckedIOException e) {
+					e.printStackTrace();
+				}
+			}
+		}else if( fileType == SPARSEFILE || fileType == LIBSVMFILE ){
+			// the features don't have names, so there's no header to split the file
+			// after and the file is read with a single thread
+			try (FileChannel in = FileChannel.open(Paths.get(filename))) {
+				SparseDataReader reader = new SparseDataReader(in, fileType == LIBSVMFILE ? 1 : 0);
+				initialize(reader);
+				featureNames = FeatureNames.unnamed(reader.getNumFeatures());
+			} catch (IOException | UncheckedIOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 	
@@ -81,31 +210,54 @@ public class DataSet {
 	private void initialize(Iterator<Example> reader){			
 		while( reader.hasNext()){
 			Example next = reader.next();				
+			next.trimToSize();
 			data.add(next);
-			labels.add(next.getLabel());
 		}
 	}
 		
 	/**
 	 * Constructs a new empty dataset (i.e. no examples) with the features
-	 * specified in the featuremap
+	 * specified in the featuremap.  If featureMap is the FeatureNames of another
+	 * data set it's shared rather than copied.
 	 * 
 	 * @param s
 	 */
-	public DataSet(HashMap<Integer, String> featureMap){
-		this.featureMap = new HashMap<Integer, String>(featureMap);
+	public DataSet(Map<Integer, String> featureMap){
+		if( featureMap instanceof FeatureNames ){
+			featureNames = (FeatureNames)featureMap;
+		}else{
+			featureNames = new FeatureNames(featureMap);
+		}
+	}
+	
+	/**
+	 * Constructs a new empty dataset with the same features as parent.  The
+	 * feature names are shared with parent, not copied.
+	 * 
+	 * @param parent
+	 */
+	DataSet(DataSet parent){
+		featureNames = parent.featureNames;
 	}
 	
 	/**
 	 * Get the mapping from feature indices to feature names.  This is
-	 * mostly useful when trying to print out the final models.
+	 * mostly useful when trying to print out the final models.  The names
+	 * are read-only and may not be loaded until the first lookup.
 	 * 
 	 * @return feature map
 	 */
-	public HashMap<Integer,String> getFeatureMap(){
-		return featureMap;
+	public FeatureNames getFeatureMap(){
+		return featureNames;
 	}	
 	
+	/**
+	 * @return the number of features, numbered 0 to getNumFeatures()-1
+	 */
+	public int getNumFeatures(){
+		return featureNames.getNumFeatures();
+	}
+	
 	/**
 	 * Get the examples associated with this data set
 	 * 
@@ -115,6 +267,69 @@ public class DataSet {
 		return data;
 	}
 	
+	/**
+	 * @return the number of examples in this data set
+	 */
+	public int size(){
+		return data.size();
+	}
+	
+	/**
+	 * @param i
+	 * @return the i-th example of this data set
+	 */
+	public Example get(int i){
+		return data.get(i);
+	}
+	
+	@Override
+	public Iterator<Example> iterator(){
+		return data.iterator();
+	}
+	
+	/**
+	 * Iterate over the examples of this data set in a random order.  The data set
+	 * itself is not changed.
+	 * 
+	 * Note: some data sets (e.g. MappedDataSet) reuse the same Example object for
+	 * each step of the iteration, so an example is only valid until next is called
+	 * again.
+	 * 
+	 * @param random
+	 * @return the examples in a random order
+	 */
+	public Iterator<Example> shuffledIterator(Random random){
+		final int[] rows = DataSetView.shuffledRows(size(), random);
+		
+		return new Iterator<Example>(){
+			private int next = 0;
+			
+			public boolean hasNext(){
+				return next < rows.length;
+			}
+			
+			public Example next(){
+				if( next >= rows.length ){
+					throw new NoSuchElementException();
+				}
+				
+				return get(rows[next++]);
+			}
+			
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * A pass over the examples of this data set, the same as iterator()
+	 */
+	@Override
+	public Iterator<Example> open(){
+		return iterator();
+	}
+	
 	/**
 	 * Add all of the examples in addMe to this data set.
 	 * Note: this does NOT change the feature map for this
@@ -125,9 +340,10 @@ public class DataSet {
 	 * @param addMe
 	 */
 	public void addData(ArrayList<Example> addMe){
+		matrix = null;
+		
 		for( Example e: addMe ){
 			data.add(e);
-			labels.add(e.getLabel());
 		}
 	}
 
@@ -141,8 +357,50 @@ public class DataSet {
 	 * @param addMe
 	 */
 	public void addData(Example e){
+		matrix = null;
 		data.add(e);
-		labels.add(e.getLabel());
+	}
+	
+	/**
+	 * Switch this data set to the packed storage mode: all of the examples
+	 * are copied into a single CSRMatrix and replaced by lightweight views over
+	 * the rows of that matrix.  Examples added afterwards are stored normally
+	 * until pack is called again.
+	 * 
+	 * Note: changes made to the examples after packing are not reflected in
+	 * the matrix returned by getMatrix.
+	 */
+	public void pack(){
+		matrix = new CSRMatrix(data);
+		
+		ArrayList<Example> rows = new ArrayList<Example>(matrix.numRows());
+		
+		for( int i = 0; i < matrix.numRows(); i++ ){
+			rows.add(matrix.getRow(i));
+		}
+		
+		data = rows;
+	}
+	
+	/**
+	 * @return whether the examples are currently backed by a CSRMatrix
+	 */
+	public boolean isPacked(){
+		return matrix != null;
+	}
+	
+	/**
+	 * Get the CSR matrix backing this data set, packing the data set first
+	 * if necessary.
+	 * 
+	 * @return the matrix
+	 */
+	public CSRMatrix getMatrix(){
+		if( matrix == null ){
+			pack();
+		}
+		
+		return matrix;
 	}
 	
 	/**
@@ -152,7 +410,7 @@ public class DataSet {
 	 * @return
 	 */
 	public Set<Integer> getAllFeatureIndices(){
-		return featureMap.keySet();
+		return new IndexRange(featureNames.getNumFeatures());
 	}
 	
 	/**
@@ -161,9 +419,84 @@ public class DataSet {
 	 * @return the labels
 	 */
 	public Set<Double> getLabels(){
+		return getLabelDictionary();
+	}
+	
+	/**
+	 * Get the dictionary giving each label of this data set a dense id.  The ids
+	 * of labels don't change as examples are added.
+	 * 
+	 * Note: changes made to the labels of examples already in the data set are
+	 * not reflected in the dictionary.
+	 * 
+	 * @return the label dictionary
+	 */
+	public LabelDictionary getLabelDictionary(){
+		updateLabels();
 		return labels;
 	}
 	
+	/**
+	 * Get the id in getLabelDictionary() of the label of the i-th example
+	 * 
+	 * @param i
+	 * @return the label id
+	 */
+	public int getLabelId(int i){
+		if( i >= numLabeled ){
+			updateLabels();
+		}
+		
+		return labelIds[i];
+	}
+	
+	/**
+	 * Add the labels of any examples added since the last update to the dictionary
+	 */
+	private void updateLabels(){
+		if( numLabeled < data.size() ){
+			if( labelIds.length < data.size() ){
+				labelIds = Arrays.copyOf(labelIds, Math.max(data.size(), labelIds.length*2));
+			}
+			
+			for( ; numLabeled < data.size(); numLabeled++ ){
+				labelIds[numLabeled] = labels.addLabel(data.get(numLabeled).getLabel());
+			}
+		}
+	}
+	
+	/**
+	 * Get a data set where each group of duplicate examples, i.e. with the same
+	 * features (see Example.equalFeatures) and the same label, is collapsed into
+	 * a single example whose weight is the sum of the weights of the group.  The
+	 * examples are copies in the order of their first occurrence, so this data set
+	 * is not changed.
+	 * 
+	 * For data with few distinct feature values this can make the training set
+	 * much smaller, and the classifiers take the weights into account.
+	 * 
+	 * @return the collapsed data set
+	 */
+	public DataSet collapseDuplicates(){
+		DataSet collapsed = new DataSet(this);
+		HashMap<DuplicateKey, Example> unique = new HashMap<DuplicateKey, Example>();
+		
+		for( Example e: this ){
+			Example first = unique.get(new DuplicateKey(e));
+			
+			if( first == null ){
+				// copy it, since the weight changes (and the example may be reused by the iterator)
+				first = new Example(e);
+				unique.put(new DuplicateKey(first), first);
+				collapsed.data.add(first);
+			}else{
+				first.setWeight(first.getWeight() + e.getWeight());
+			}
+		}
+		
+		return collapsed;
+	}
+	
 	/**
 	 * Split this data set into two data sets of size:
 	 * - total_size * fraction
@@ -173,27 +506,14 @@ public class DataSet {
 	 * @return a split of the data
 	 */
 	public DataSetSplit split(double fraction){
-		ArrayList<Example> newdata = (ArrayList<Example>)data.clone();
-		Collections.shuffle(newdata, new Random(System.nanoTime()));
-		
-		ArrayList<Example> train = new ArrayList<Example>();
-		ArrayList<Example> test = new ArrayList<Example>();
+		// the views share the label dictionary, so fill it in before they can be used
+		getLabelDictionary();
 		
-		int trainSize = (int)Math.floor(data.size()*fraction);
+		int[] rows = DataSetView.shuffledRows(size(), new Random(System.nanoTime()));
+		int trainSize = (int)Math.floor(size()*fraction);
 		
-		for( int i = 0; i < newdata.size(); i++ ){
-			if( i < trainSize ){
-				train.add(newdata.get(i));
-			}else{
-				test.add(newdata.get(i));
-			}
-		}
-		
-		DataSet dTrain = new DataSet(featureMap);
-		dTrain.addData(train);
-		
-		DataSet dTest = new DataSet(featureMap);
-		dTest.addData(test);
+		DataSet dTrain = new DataSetView(this, rows, 0, trainSize);
+		DataSet dTest = new DataSetView(this, rows, trainSize, rows.length);
 
 		return new DataSetSplit(dTrain, dTest);
 	}	
@@ -220,4 +540,69 @@ public class DataSet {
 	public CrossValidationSet getRandomCrossValidationSet(int num){
 		return new CrossValidationSet(this, num, true);
 	}
+	
+	/**
+	 * Get a reproducible random cross-validation of this data set with num
+	 * splits.  The same seed always gives the same splits.
+	 * 
+	 * @param num
+	 * @param seed
+	 * @return
+	 */
+	public CrossValidationSet getRandomCrossValidationSet(int num, long seed){
+		return new CrossValidationSet(this, num, seed, false);
+	}
+	
+	/**
+	 * Get a reproducible random cross-validation of this data set with num
+	 * splits where each split has the same proportion of each label as the
+	 * whole data set (as close as possible).
+	 * 
+	 * @param num
+	 * @param seed
+	 * @return
+	 */
+	public CrossValidationSet getStratifiedCrossValidationSet(int num, long seed){
+		return new CrossValidationSet(this, num, seed, true);
+	}
+	
+	/**
+	 * Hash key for finding duplicate examples: two keys are equal if the examples
+	 * have the same label and the same features, ignoring the weights.
+	 */
+	private static class DuplicateKey{
+		private Example example;
+		private int hash;
+		
+		public DuplicateKey(Example example){
+			this.example = example;
+			
+			long bits = Double.doubleToLongBits(example.getLabel());
+			int h = (int)(bits ^ (bits >>> 32));
+			
+			for( int i = 0; i < example.getFeatureCount(); i++ ){
+				bits = Double.doubleToLongBits(example.getFeatureValueAt(i));
+				h = 31*(31*h + example.getFeatureIndexAt(i)) + (int)(bits ^ (bits >>> 32));
+			}
+			
+			hash = h;
+		}
+		
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			if( !(o instanceof DuplicateKey) ){
+				return false;
+			}
+			
+			Example other = ((DuplicateKey)o).example;
+			return hash == o.hashCode() &&
+					Double.doubleToLongBits(example.getLabel()) == Double.doubleToLongBits(other.getLabel()) &&
+					example.equalFeatures(other);
+		}
+	}
 }
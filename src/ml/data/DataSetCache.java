@@ -0,0 +1,387 @@
+package ml.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * A binary on-disk copy of a loaded data set so that the source file doesn't
+ * have to be parsed again.  The cache stores the size and modification time of
+ * the source file and is only used if those still match.
+ * 
+ * Layout (big-endian):
+ * 
+ * header: magic, version, file type, source size, source modification time,
+ *         number of rows, number of entries, number of features, number of
+ *         feature names, whether there are weights
+ * labels: double per row
+ * row offsets: int per row, plus one
+ * columns: int per entry
+ * values: double per entry
+ * weights: double per row, only if the rows aren't all weighted 1
+ * feature map: (int index, int length, UTF-8 bytes) per feature name
+ * 
+ * The sections are read back through FileChannel.map with bulk copies, which
+ * is mostly limited by disk speed.  The feature names are left in the mapped file
+ * until they're used (see FeatureNames).
+ * 
+ * @author dkauchak
+ */
+public class DataSetCache {
+	public static final String SUFFIX = ".cache";
+	
+	private static final int MAGIC = 0x4D4C4453; // "MLDS"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 4+4+4+8+8+4+4+4+4+4;
+	
+	// the file type and source information for data written without a source
+	private static final int NO_SOURCE = -1;
+	
+	// maximum number of bytes mapped at a time
+	private static final int MAP_CHUNK = 1 << 30;
+	
+	private File cacheFile;
+	
+	// the header information
+	private int fileType;
+	private long sourceSize;
+	private long sourceModified;
+	private int numRows;
+	private int numEntries;
+	private int numFeatures;
+	private int numFeatureNames;
+	private boolean hasWeights;
+	
+	/**
+	 * @param cacheFile the location of the cache file
+	 */
+	public DataSetCache(File cacheFile){
+		this.cacheFile = cacheFile;
+	}
+	
+	/**
+	 * Get the default cache file used for a source file
+	 * 
+	 * @param filename the source file
+	 * @return the cache for filename
+	 */
+	public static DataSetCache forSource(String filename){
+		return new DataSetCache(new File(filename + SUFFIX));
+	}
+	
+	/**
+	 * Check whether the cache exists and was created from the current version of source
+	 * 
+	 * @param source the file the data set was read from
+	 * @param fileType how source was read, using the DataSet constants
+	 * @return whether the cache can be used instead of reading source
+	 */
+	public boolean isCurrent(File source, int fileType){
+		if( !cacheFile.exists() || cacheFile.length() < HEADER_SIZE ){
+			return false;
+		}
+		
+		try{
+			readHeader();
+		}catch(IOException e){
+			return false;
+		}
+		
+		return this.fileType == fileType &&
+				sourceSize == source.length() &&
+				sourceModified == source.lastModified();
+	}
+	
+	/**
+	 * Read the data set stored in the cache.  The data set will be in the packed
+	 * storage mode.
+	 * 
+	 * @return the data set
+	 * @throws IOException
+	 */
+	public DataSet read() throws IOException{
+		readHeader();
+		
+		double[] labels = new double[numRows];
+		int[] rowOffsets = new int[numRows+1];
+		int[] columns = new int[numEntries];
+		double[] values = new double[numEntries];
+		double[] weights = hasWeights ? new double[numRows] : null;
+		FeatureNames featureNames;
+		
+		FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+		
+		try{
+			long position = HEADER_SIZE;
+			position = readDoubles(channel, position, labels);
+			position = readInts(channel, position, rowOffsets);
+			position = readInts(channel, position, columns);
+			position = readDoubles(channel, position, values);
+			
+			if( hasWeights ){
+				position = readDoubles(channel, position, weights);
+			}
+			
+			featureNames = mapFeatureNames(channel, position);
+		}finally{
+			channel.close();
+		}
+		
+		return new DataSet(new CSRMatrix(rowOffsets, columns, values, labels, weights), featureNames);
+	}
+	
+	/**
+	 * Map the data set stored in the cache without reading the examples into
+	 * memory (see MappedDataSet).
+	 * 
+	 * @return the mapped data set
+	 * @throws IOException
+	 */
+	public MappedDataSet map() throws IOException{
+		readHeader();
+		
+		FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+		
+		try{
+			// labels, row offsets, columns, values, weights
+			long featuresPosition = HEADER_SIZE + 8L*numRows + 4L*(numRows+1) + 4L*numEntries + 8L*numEntries +
+					(hasWeights ? 8L*numRows : 0);
+			FeatureNames featureNames = mapFeatureNames(channel, featuresPosition);
+			
+			return new MappedDataSet(channel, HEADER_SIZE, numRows, numEntries, hasWeights, featureNames);
+		}finally{
+			// the mappings stay valid after the channel is closed
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Write data to the cache, recording the current state of source.  This packs
+	 * data if it isn't already.
+	 * 
+	 * @param data the data set read from source
+	 * @param source the file the data set was read from
+	 * @param fileType how source was read, using the DataSet constants
+	 * @throws IOException
+	 */
+	public void write(DataSet data, File source, int fileType) throws IOException{
+		write(data, fileType, source.length(), source.lastModified());
+	}
+	
+	/**
+	 * Write data to the cache file on its own, i.e. not as the cache of a source
+	 * file, so isCurrent is always false but it can still be read.  This packs
+	 * data if it isn't already.
+	 * 
+	 * @param data
+	 * @throws IOException
+	 */
+	public void write(DataSet data) throws IOException{
+		write(data, NO_SOURCE, NO_SOURCE, NO_SOURCE);
+	}
+	
+	private void write(DataSet data, int fileType, long sourceSize, long sourceModified) throws IOException{
+		CSRMatrix matrix = data.getMatrix();
+		FeatureNames featureNames = data.getFeatureMap();
+		
+		// write to a temporary file first so that a partially written cache is never used
+		File temp = new File(cacheFile.getPath() + ".tmp");
+		FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		
+		try{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+			
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(fileType);
+			buffer.putLong(sourceSize);
+			buffer.putLong(sourceModified);
+			buffer.putInt(matrix.numRows());
+			buffer.putInt(matrix.numEntries());
+			buffer.putInt(featureNames.getNumFeatures());
+			buffer.putInt(featureNames.size());
+			buffer.putInt(matrix.getWeights() != null ? 1 : 0);
+			
+			writeDoubles(channel, buffer, matrix.getLabels(), matrix.numRows());
+			writeInts(channel, buffer, matrix.getRowOffsets(), matrix.numRows()+1);
+			writeInts(channel, buffer, matrix.getColumns(), matrix.numEntries());
+			writeDoubles(channel, buffer, matrix.getValues(), matrix.numEntries());
+			
+			if( matrix.getWeights() != null ){
+				writeDoubles(channel, buffer, matrix.getWeights(), matrix.numRows());
+			}
+			
+			for( Map.Entry<Integer, String> entry: featureNames.entrySet() ){
+				byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+				buffer = ensureSpace(channel, buffer, 8 + name.length);
+				buffer.putInt(entry.getKey());
+				buffer.putInt(name.length);
+				buffer.put(name);
+			}
+			
+			flush(channel, buffer);
+		}finally{
+			channel.close();
+		}
+		
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Read the header of the cache file into the header fields
+	 * 
+	 * @throws IOException
+	 */
+	private void readHeader() throws IOException{
+		FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+		
+		try{
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			
+			if( header.getInt() != MAGIC || header.getInt() != VERSION ){
+				throw new IOException("Not a data set cache: " + cacheFile);
+			}
+			
+			fileType = header.getInt();
+			sourceSize = header.getLong();
+			sourceModified = header.getLong();
+			numRows = header.getInt();
+			numEntries = header.getInt();
+			numFeatures = header.getInt();
+			numFeatureNames = header.getInt();
+			hasWeights = header.getInt() != 0;
+		}finally{
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Map the feature names, which are decoded the first time they're used
+	 * 
+	 * @param channel
+	 * @param position where the feature names start in the file
+	 * @return the feature names
+	 * @throws IOException
+	 */
+	private FeatureNames mapFeatureNames(FileChannel channel, long position) throws IOException{
+		if( numFeatureNames == 0 ){
+			return FeatureNames.unnamed(numFeatures);
+		}
+		
+		// the mapping stays valid after the channel is closed
+		MappedByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size()-position);
+		return new FeatureNames(numFeatures, numFeatureNames, names);
+	}
+	
+	/**
+	 * Bulk copy ints out of the file, mapping at most MAP_CHUNK bytes at a time
+	 * 
+	 * @param channel
+	 * @param position where the ints start in the file
+	 * @param dest
+	 * @return the position after the ints
+	 * @throws IOException
+	 */
+	private static long readInts(FileChannel channel, long position, int[] dest) throws IOException{
+		int perChunk = MAP_CHUNK/4;
+		
+		for( int start = 0; start < dest.length; start += perChunk ){
+			int length = Math.min(perChunk, dest.length-start);
+			channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*length).asIntBuffer().get(dest, start, length);
+			position += 4L*length;
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Bulk copy doubles out of the file, mapping at most MAP_CHUNK bytes at a time
+	 * 
+	 * @param channel
+	 * @param position where the doubles start in the file
+	 * @param dest
+	 * @return the position after the doubles
+	 * @throws IOException
+	 */
+	private static long readDoubles(FileChannel channel, long position, double[] dest) throws IOException{
+		int perChunk = MAP_CHUNK/8;
+		
+		for( int start = 0; start < dest.length; start += perChunk ){
+			int length = Math.min(perChunk, dest.length-start);
+			channel.map(FileChannel.MapMode.READ_ONLY, position, 8L*length).asDoubleBuffer().get(dest, start, length);
+			position += 8L*length;
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Write the first length ints of src through buffer
+	 */
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] src, int length) throws IOException{
+		for( int start = 0; start < length; ){
+			if( buffer.remaining() < 4 ){
+				flush(channel, buffer);
+			}
+			
+			int count = Math.min(buffer.remaining()/4, length-start);
+			buffer.asIntBuffer().put(src, start, count);
+			buffer.position(buffer.position() + 4*count);
+			start += count;
+		}
+	}
+	
+	/**
+	 * Write the first length doubles of src through buffer
+	 */
+	private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] src, int length) throws IOException{
+		for( int start = 0; start < length; ){
+			if( buffer.remaining() < 8 ){
+				flush(channel, buffer);
+			}
+			
+			int count = Math.min(buffer.remaining()/8, length-start);
+			buffer.asDoubleBuffer().put(src, start, count);
+			buffer.position(buffer.position() + 8*count);
+			start += count;
+		}
+	}
+	
+	/**
+	 * Make sure there's room for size more bytes in buffer, writing it out if necessary
+	 * 
+	 * @return a buffer with at least size bytes remaining
+	 */
+	private static ByteBuffer ensureSpace(FileChannel channel, ByteBuffer buffer, int size) throws IOException{
+		if( buffer.remaining() < size ){
+			flush(channel, buffer);
+			
+			if( buffer.capacity() < size ){
+				buffer = ByteBuffer.allocate(size);
+			}
+		}
+		
+		return buffer;
+	}
+	
+	/**
+	 * Write out everything in the buffer and clear it
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException{
+		buffer.flip();
+		
+		while( buffer.hasRemaining() ){
+			channel.write(buffer);
+		}
+		
+		buffer.clear();
+	}
+}
@@ -39,6 +39,6 @@ public class DataSetSplit {
 	}
 	
 	public String toString(){
-		return "Train: " + train.getData().size() + "\tTest: " + test.getData().size();
+		return "Train: " + train.size() + "\tTest: " + test.size();
 	}
 }
@@ -0,0 +1,227 @@
+package ml.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A data set made up of some of the examples of a parent data set, e.g. one side
+ * of a split or a cross-validation fold.  The examples are given by one or two
+ * ranges of an array of row indices into the parent, which can be shared between
+ * views, so creating a view copies neither the examples nor the feature map.
+ * 
+ * The view is read-only: getData() and any of the methods that change the data set
+ * first copy the examples into the view, which from then on behaves like a normal
+ * data set.
+ * 
+ * @author dkauchak
+ */
+class DataSetView extends DataSet {
+	private DataSet parent;
+	private int[] rows; // indices into parent, null once the examples have been copied
+	
+	// the examples are parent.get(rows[i]) for i in [start1, end1) then [start2, end2)
+	private int start1;
+	private int end1;
+	private int start2;
+	private int end2;
+	
+	private LabelDictionary viewLabels = null; // calculated on demand
+	
+	/**
+	 * A view of the examples rows[start] to rows[end-1] of parent
+	 * 
+	 * @param parent
+	 * @param rows
+	 * @param start
+	 * @param end
+	 */
+	public DataSetView(DataSet parent, int[] rows, int start, int end){
+		this(parent, rows, start, end, end, end);
+	}
+	
+	/**
+	 * A view of the examples in the ranges [start1, end1) and [start2, end2) of rows
+	 * 
+	 * @param parent
+	 * @param rows
+	 * @param start1
+	 * @param end1
+	 * @param start2
+	 * @param end2
+	 */
+	public DataSetView(DataSet parent, int[] rows, int start1, int end1, int start2, int end2){
+		super(parent);
+		this.parent = parent;
+		this.rows = rows;
+		this.start1 = start1;
+		this.end1 = end1;
+		this.start2 = start2;
+		this.end2 = end2;
+	}
+	
+	/**
+	 * Get the row indices 0 to size-1 in a random order
+	 * 
+	 * @param size
+	 * @param random
+	 * @return the shuffled row indices
+	 */
+	public static int[] shuffledRows(int size, Random random){
+		int[] rows = new int[size];
+		
+		for( int i = 0; i < size; i++ ){
+			rows[i] = i;
+		}
+		
+		// the same shuffle as Collections.shuffle
+		for( int i = size; i > 1; i-- ){
+			int j = random.nextInt(i);
+			int temp = rows[i-1];
+			rows[i-1] = rows[j];
+			rows[j] = temp;
+		}
+		
+		return rows;
+	}
+	
+	@Override
+	public int size(){
+		if( rows == null ){
+			return super.size();
+		}
+		
+		return (end1-start1) + (end2-start2);
+	}
+	
+	@Override
+	public Example get(int i){
+		if( rows == null ){
+			return super.get(i);
+		}
+		
+		int first = end1-start1;
+		return parent.get(i < first ? rows[start1+i] : rows[start2+i-first]);
+	}
+	
+	@Override
+	public Iterator<Example> iterator(){
+		if( rows == null ){
+			return super.iterator();
+		}
+		
+		return new Iterator<Example>(){
+			private int next = 0;
+			private int size = size();
+			
+			public boolean hasNext(){
+				return next < size;
+			}
+			
+			public Example next(){
+				if( next >= size ){
+					throw new NoSuchElementException();
+				}
+				
+				return get(next++);
+			}
+			
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	@Override
+	public Set<Double> getLabels(){
+		if( rows == null ){
+			return super.getLabels();
+		}
+		
+		if( viewLabels == null ){
+			LabelDictionary labels = new LabelDictionary();
+			
+			for( Example e: this ){
+				labels.addLabel(e.getLabel());
+			}
+			
+			viewLabels = labels;
+		}
+		
+		return viewLabels;
+	}
+	
+	/**
+	 * The label dictionary of the parent, so that the label ids are the same as
+	 * the parent's.  The dictionary may include labels that none of the examples
+	 * of this view have.
+	 */
+	@Override
+	public LabelDictionary getLabelDictionary(){
+		if( rows == null ){
+			return super.getLabelDictionary();
+		}
+		
+		return parent.getLabelDictionary();
+	}
+	
+	@Override
+	public int getLabelId(int i){
+		if( rows == null ){
+			return super.getLabelId(i);
+		}
+		
+		int first = end1-start1;
+		return parent.getLabelId(i < first ? rows[start1+i] : rows[start2+i-first]);
+	}
+	
+	@Override
+	public ArrayList<Example> getData(){
+		materialize();
+		return super.getData();
+	}
+	
+	@Override
+	public void addData(ArrayList<Example> addMe){
+		materialize();
+		super.addData(addMe);
+	}
+	
+	@Override
+	public void addData(Example e){
+		materialize();
+		super.addData(e);
+	}
+	
+	@Override
+	public void pack(){
+		materialize();
+		super.pack();
+	}
+	
+	@Override
+	public CSRMatrix getMatrix(){
+		materialize();
+		return super.getMatrix();
+	}
+	
+	/**
+	 * Copy the examples into this data set so that it no longer depends on the parent
+	 */
+	private void materialize(){
+		if( rows != null ){
+			ArrayList<Example> examples = new ArrayList<Example>(size());
+			
+			for( Example e: this ){
+				examples.add(e);
+			}
+			
+			rows = null;
+			parent = null;
+			viewLabels = null;
+			super.addData(examples);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package ml.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes all of the examples of a data set to a file in one of the formats that
+ * DataSet reads.
+ * 
+ * The text formats are encoded straight into a reusable byte buffer that is
+ * written out to a FileChannel when full, and numbers are formatted without
+ * going through Strings: whole numbers are written as integers and other values
+ * with the fewest decimal places that still read back as exactly the same double
+ * (falling back to Double.toString for very large or small values).
+ * 
+ * @author dkauchak
+ */
+public class DataSetWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	// enough room for any single number, including Double.toString output
+	private static final int MAX_NUMBER_LENGTH = 32;
+	
+	// numbers are written as decimals if the digits fit in a long exactly
+	private static final double MAX_DECIMAL = 1e15;
+	private static final int MAX_DECIMAL_PLACES = 15;
+	
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15
+	};
+	
+	private FileChannel channel;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	
+	private DataSetWriter(String filename) throws IOException{
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Write data as a CSV file (DataSet.CSVFILE): a header line with the feature
+	 * names followed by one line per example with the value of every feature and
+	 * the label last.  Features without a name in the feature map are named by
+	 * their index.
+	 * 
+	 * Weights aren't written.
+	 * 
+	 * @param data
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void writeCSV(DataSet data, String filename) throws IOException{
+		DataSetWriter writer = new DataSetWriter(filename);
+		
+		try{
+			writer.csv(data);
+		}finally{
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Write data as a sparse file (DataSet.SPARSEFILE), one example per line:
+	 * 
+	 * label index:value index:value ...
+	 * 
+	 * Only the stored features are written.  The format has no feature names or
+	 * weights, so those aren't written.
+	 * 
+	 * @param data
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void writeSparse(DataSet data, String filename) throws IOException{
+		writeSparse(data, filename, 0);
+	}
+	
+	/**
+	 * Write data as a sparse file with the feature indices starting at indexBase,
+	 * e.g. 1 for a LibSVM file (DataSet.LIBSVMFILE)
+	 * 
+	 * @param data
+	 * @param filename
+	 * @param indexBase the index to write for feature 0
+	 * @throws IOException
+	 */
+	public static void writeSparse(DataSet data, String filename, int indexBase) throws IOException{
+		DataSetWriter writer = new DataSetWriter(filename);
+		
+		try{
+			writer.sparse(data, indexBase);
+		}finally{
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Write data in the binary format of DataSetCache, including the feature names
+	 * and weights.  The file can be read back with DataSetCache.read or map.  This
+	 * packs data if it isn't already.
+	 * 
+	 * @param data
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void writeBinary(DataSet data, String filename) throws IOException{
+		new DataSetCache(new File(filename)).write(data);
+	}
+	
+	/**
+	 * Write data as a CSV file
+	 */
+	private void csv(DataSet data) throws IOException{
+		int numFeatures = data.getNumFeatures();
+		FeatureNames featureNames = data.getFeatureMap();
+		
+		for( int i = 0; i < numFeatures; i++ ){
+			String name = featureNames.getName(i);
+			writeString(name == null ? Integer.toString(i) : name);
+			writeByte((byte)',');
+		}
+		
+		writeString("label");
+		writeByte((byte)'\n');
+		
+		for( Example e: data ){
+			int next = 0; // the next stored feature
+			
+			for( int i = 0; i < numFeatures; i++ ){
+				ensureSpace(MAX_NUMBER_LENGTH + 1);
+				
+				if( next < e.getFeatureCount() && e.getFeatureIndexAt(next) == i ){
+					writeNumber(e.getFeatureValueAt(next));
+					next++;
+				}else{
+					buffer[position++] = '0';
+				}
+				
+				buffer[position++] = ',';
+			}
+			
+			ensureSpace(MAX_NUMBER_LENGTH + 1);
+			writeNumber(e.getLabel());
+			buffer[position++] = '\n';
+		}
+	}
+	
+	/**
+	 * Write data as a sparse file
+	 */
+	private void sparse(DataSet data, int indexBase) throws IOException{
+		for( Example e: data ){
+			ensureSpace(MAX_NUMBER_LENGTH);
+			writeNumber(e.getLabel());
+			
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				// space, index, colon and value
+				ensureSpace(2*MAX_NUMBER_LENGTH);
+				buffer[position++] = ' ';
+				writeLong(e.getFeatureIndexAt(i) + (long)indexBase);
+				buffer[position++] = ':';
+				writeNumber(e.getFeatureValueAt(i));
+			}
+			
+			ensureSpace(1);
+			buffer[position++] = '\n';
+		}
+	}
+	
+	/**
+	 * Write value into the buffer, which must have room for MAX_NUMBER_LENGTH bytes
+	 * 
+	 * @param value
+	 */
+	private void writeNumber(double value){
+		if( value == (long)value && Math.abs(value) < MAX_DECIMAL ){
+			writeLong((long)value);
+			return;
+		}
+		
+		// find the fewest decimal places that give back value when read, which is
+		// how the readers parse short decimals too (mantissa / power of ten).  If
+		// some number of places works, any more places work too, so binary search.
+		int low = 1;
+		int high = maxDecimalPlaces(value);
+		
+		if( high >= 1 && exactDecimal(value, high) ){
+			while( low < high ){
+				int mid = (low + high) >>> 1;
+				
+				if( exactDecimal(value, mid) ){
+					high = mid;
+				}else{
+					low = mid+1;
+				}
+			}
+			
+			writeDecimal(Math.round(value*POWERS_OF_TEN[high]), high);
+			return;
+		}
+		
+		// NaN, infinity, very large/small values or too many digits
+		String s = Double.toString(value);
+		
+		for( int i = 0; i < s.length(); i++ ){
+			buffer[position++] = (byte)s.charAt(i);
+		}
+	}
+	
+	/**
+	 * @return the most decimal places value can be written with, keeping the
+	 * digits below MAX_DECIMAL (0 if it's too big, or NaN)
+	 */
+	private static int maxDecimalPlaces(double value){
+		double abs = Math.abs(value);
+		int places = 0;
+		
+		while( places < MAX_DECIMAL_PLACES && abs*POWERS_OF_TEN[places+1] < MAX_DECIMAL ){
+			places++;
+		}
+		
+		return places;
+	}
+	
+	/**
+	 * @return whether value reads back exactly from its digits with places decimal places
+	 */
+	private static boolean exactDecimal(double value, int places){
+		return Math.round(value*POWERS_OF_TEN[places])/POWERS_OF_TEN[places] == value;
+	}
+	
+	/**
+	 * Write mantissa / 10^places, e.g. 25 and 1 gives 2.5
+	 */
+	private void writeDecimal(long mantissa, int places){
+		if( mantissa < 0 ){
+			buffer[position++] = '-';
+			mantissa = -mantissa;
+		}
+		
+		// at least one digit before the decimal point
+		int numDigits = Math.max(digitCount(mantissa), places+1);
+		int end = position + numDigits + 1;
+		int i = end;
+		
+		for( int digit = 0; digit < numDigits; digit++ ){
+			if( digit == places ){
+				buffer[--i] = '.';
+			}
+			
+			buffer[--i] = (byte)('0' + mantissa % 10);
+			mantissa /= 10;
+		}
+		
+		position = end;
+	}
+	
+	/**
+	 * Write value as an integer
+	 */
+	private void writeLong(long value){
+		if( value < 0 ){
+			buffer[position++] = '-';
+			value = -value;
+		}
+		
+		int end = position + digitCount(value);
+		int i = end;
+		
+		do{
+			buffer[--i] = (byte)('0' + value % 10);
+			value /= 10;
+		}while( value > 0 );
+		
+		position = end;
+	}
+	
+	/**
+	 * @param value non-negative
+	 * @return the number of decimal digits in value
+	 */
+	private static int digitCount(long value){
+		int count = 1;
+		
+		while( value >= 10 ){
+			value /= 10;
+			count++;
+		}
+		
+		return count;
+	}
+	
+	private void writeByte(byte b) throws IOException{
+		ensureSpace(1);
+		buffer[position++] = b;
+	}
+	
+	private void writeString(String s) throws IOException{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		
+		for( int start = 0; start < bytes.length; ){
+			ensureSpace(1);
+			int length = Math.min(bytes.length-start, buffer.length-position);
+			System.arraycopy(bytes, start, buffer, position, length);
+			position += length;
+			start += length;
+		}
+	}
+	
+	/**
+	 * Make sure there's room for size more bytes in the buffer, writing it out if necessary
+	 */
+	private void ensureSpace(int size) throws IOException{
+		if( buffer.length - position < size ){
+			flush();
+		}
+	}
+	
+	/**
+	 * Write out everything in the buffer
+	 */
+	private void flush() throws IOException{
+		ByteBuffer out = ByteBuffer.wrap(buffer, 0, position);
+		
+		while( out.hasRemaining() ){
+			channel.write(out);
+		}
+		
+		position = 0;
+	}
+	
+	private void close() throws IOException{
+		try{
+			flush();
+		}finally{
+			channel.close();
+		}
+	}
+}
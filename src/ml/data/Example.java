@@ -1,9 +1,10 @@
 package ml.data;
 
-import java.util.Collections;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -16,17 +17,70 @@ public class Example {
 	// Rather than keeping the name of the feature (i.e. the header information), we'll
 	// index the features starting at 0.  The DataSet class will keep a mapping from
 	// feature index to the actual name.
-	private HashMap<Integer, Double> sparseData;
+	//
+	// The features are kept as two parallel arrays sorted by feature index so that
+	// no boxing is required to store or look up a feature.  Only the first
+	// numFeatures entries of the arrays, starting at offset, are valid.
+	private int[] indices;
+	private double[] values;
+	private int offset = 0;
+	private int numFeatures = 0;
 	private double label;  // the label (assuming it has one)
+	private double weight = 1.0; // how many examples this one counts as, e.g. for collapsed duplicates
+	
+	// whether the arrays are shared with a CSRMatrix, in which case they're
+	// copied before the first modification
+	private boolean shared = false;
+	
+	private static final int INITIAL_CAPACITY = 4;
 	
 	public Example(){
-		sparseData = new HashMap<Integer, Double>();
+		indices = new int[INITIAL_CAPACITY];
+		values = new double[INITIAL_CAPACITY];
+	}
+	
+	/**
+	 * Create an example with room for capacity features before the
+	 * storage needs to grow.
+	 * 
+	 * @param capacity the expected number of features
+	 */
+	public Example(int capacity){
+		indices = new int[Math.max(capacity, 1)];
+		values = new double[Math.max(capacity, 1)];
 	}
 	
 	public Example(Example e){
-		// copy everything
-		label = e.label;
-		sparseData = new HashMap<Integer,Double>(e.sparseData);
+		// copy everything, through the accessors in case e is a view (e.g. a MappedExample)
+		label = e.getLabel();
+		weight = e.getWeight();
+		numFeatures = e.getFeatureCount();
+		indices = new int[Math.max(numFeatures, 1)];
+		values = new double[Math.max(numFeatures, 1)];
+		
+		for( int i = 0; i < numFeatures; i++ ){
+			indices[i] = e.getFeatureIndexAt(i);
+			values[i] = e.getFeatureValueAt(i);
+		}
+	}
+	
+	/**
+	 * Create an example that is a view over a row of a CSRMatrix.  The arrays
+	 * are not copied unless the example is modified.
+	 * 
+	 * @param indices the matrix column indices
+	 * @param values the matrix values
+	 * @param offset where the row starts in the arrays
+	 * @param numFeatures the number of entries in the row
+	 * @param label
+	 */
+	Example(int[] indices, double[] values, int offset, int numFeatures, double label){
+		this.indices = indices;
+		this.values = values;
+		this.offset = offset;
+		this.numFeatures = numFeatures;
+		this.label = label;
+		shared = true;
 	}
 	
 	/**
@@ -36,9 +90,24 @@ public class Example {
 	 * @param value  the value to be added
 	 */
 	public void addFeature(int featureNum, double value){
-		sparseData.put(featureNum, value);
-	}
+		if( shared ){
+			unshare();
+		}
 		
+		// the common case is features being added in increasing order
+		if( numFeatures == 0 || featureNum > indices[numFeatures-1] ){
+			insertAt(numFeatures, featureNum, value);
+		}else{
+			int pos = find(featureNum);
+			
+			if( pos >= 0 ){
+				values[pos] = value;
+			}else{
+				insertAt(-(pos+1), featureNum, value);
+			}
+		}
+	}
+	
 	/**
 	 * Get the value associated with this feature.
 	 * 
@@ -46,7 +115,8 @@ public class Example {
 	 * @return the value for featureNum for this example
 	 */
 	public double getFeature(int featureNum){
-		return sparseData.containsKey(featureNum) ? sparseData.get(featureNum) : 0.0;
+		int pos = find(featureNum);
+		return pos >= 0 ? getFeatureValueAt(pos) : 0.0;
 	}
 	
 	/**
@@ -56,16 +126,56 @@ public class Example {
 	 * @param value
 	 */
 	public void setFeature(int featureNum, double value){
-		sparseData.put(featureNum, value);
+		addFeature(featureNum, value);
 	}
 	
 	/**
 	 * Get all the features that this example has (indices).
 	 * 
+	 * Note: iterating over this set boxes the indices.  In performance critical
+	 * code use getFeatureCount, getFeatureIndexAt and getFeatureValueAt instead.
+	 * 
 	 * @return the set of features
 	 */
 	public Set<Integer> getFeatureSet(){
-		return sparseData.keySet();
+		return new FeatureIndexSet();
+	}
+	
+	/**
+	 * Get the number of features stored in this example.  Together with
+	 * getFeatureIndexAt and getFeatureValueAt this allows iterating over the
+	 * features without any allocation, e.g.
+	 * 
+	 * for( int i = 0; i < e.getFeatureCount(); i++ ){
+	 *   int index = e.getFeatureIndexAt(i);
+	 *   double value = e.getFeatureValueAt(i);
+	 * }
+	 * 
+	 * @return the number of stored features
+	 */
+	public int getFeatureCount(){
+		return numFeatures;
+	}
+	
+	/**
+	 * Get the feature index of the i-th stored feature.  Stored features are
+	 * ordered by increasing feature index.
+	 * 
+	 * @param i position between 0 and getFeatureCount()-1
+	 * @return the feature index at position i
+	 */
+	public int getFeatureIndexAt(int i){
+		return indices[offset + i];
+	}
+	
+	/**
+	 * Get the value of the i-th stored feature.
+	 * 
+	 * @param i position between 0 and getFeatureCount()-1
+	 * @return the feature value at position i
+	 */
+	public double getFeatureValueAt(int i){
+		return values[offset + i];
 	}
 	
 	/**
@@ -86,6 +196,25 @@ public class Example {
 		return label;
 	}
 	
+	/**
+	 * Set the weight of this example, i.e. how many examples it counts as when
+	 * training.  The default weight is 1.
+	 * 
+	 * @param weight
+	 */
+	public void setWeight(double weight){
+		this.weight = weight;
+	}
+	
+	/**
+	 * Get the weight of this example.
+	 * 
+	 * @return the example weight
+	 */
+	public double getWeight(){
+		return weight;
+	}
+	
 	/**
 	 * Checks for equality between two examples *ignoring* the label
 	 * 
@@ -93,37 +222,88 @@ public class Example {
 	 * @return whether or not these examples have the same feature values
 	 */
 	public boolean equalFeatures(Example other){
-		return sparseData.equals(other.sparseData);
+		if( getFeatureCount() != other.getFeatureCount() ){
+			return false;
+		}
+		
+		for( int i = 0; i < getFeatureCount(); i++ ){
+			// compare the values the same way Double.equals does
+			if( getFeatureIndexAt(i) != other.getFeatureIndexAt(i) ||
+				Double.doubleToLongBits(getFeatureValueAt(i)) != Double.doubleToLongBits(other.getFeatureValueAt(i)) ){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * The dot product of the features of this example and other, going through
+	 * only the stored features of both
+	 * 
+	 * @param other
+	 * @return the dot product
+	 */
+	public double dotProduct(Example other){
+		int count = getFeatureCount();
+		int otherCount = other.getFeatureCount();
+		double sum = 0.0;
+		
+		// the stored features are sorted by index, so merge them
+		for( int i = 0, j = 0; i < count && j < otherCount; ){
+			int index = getFeatureIndexAt(i);
+			int otherIndex = other.getFeatureIndexAt(j);
+			
+			if( index < otherIndex ){
+				i++;
+			}else if( index > otherIndex ){
+				j++;
+			}else{
+				sum += getFeatureValueAt(i) * other.getFeatureValueAt(j);
+				i++;
+				j++;
+			}
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * @return the squared Euclidean norm of the features of this example
+	 */
+	public double squaredNorm(){
+		double sum = 0.0;
+		
+		for( int i = 0; i < getFeatureCount(); i++ ){
+			double value = getFeatureValueAt(i);
+			sum += value*value;
+		}
+		
+		return sum;
 	}
 	
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
-		buffer.append(label);
+		buffer.append(getLabel());
 		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-		
-		for( int featureIndex: indices){
-			buffer.append(" " + featureIndex + ":" + valueToString(sparseData.get(featureIndex)));
+		for( int i = 0; i < getFeatureCount(); i++ ){
+			buffer.append(" " + getFeatureIndexAt(i) + ":" + valueToString(getFeatureValueAt(i)));
 		}
 		
 		return buffer.toString();
 	}
 	
-	public String toString(HashMap<Integer, String> featureMap){
+	public String toString(Map<Integer, String> featureMap){
 		StringBuffer buffer = new StringBuffer();
-		buffer.append(label);
-		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
+		buffer.append(getLabel());
 		
-		for( int featureIndex: indices){
-			buffer.append(" " + featureMap.get(featureIndex) + ":" + valueToString(sparseData.get(featureIndex)));
+		for( int i = 0; i < getFeatureCount(); i++ ){
+			buffer.append(" " + featureMap.get(getFeatureIndexAt(i)) + ":" + valueToString(getFeatureValueAt(i)));
 		}
 		
 		return buffer.toString();
 	}
-
+	
 	/**
 	 * CSV representation of this example
 	 * 
@@ -132,18 +312,72 @@ public class Example {
 	public String toCSVString(){
 		StringBuffer buffer = new StringBuffer();
 		
-		ArrayList<Integer> indices = new ArrayList<Integer>(sparseData.keySet());
-		Collections.sort(indices);
-		
-		for( int featureIndex: indices){
-			buffer.append(valueToString(sparseData.get(featureIndex)) + ",");
+		for( int i = 0; i < getFeatureCount(); i++ ){
+			buffer.append(valueToString(getFeatureValueAt(i)) + ",");
 		}
 		
-		buffer.append( valueToString(label) );
+		buffer.append( valueToString(getLabel()) );
 		
 		return buffer.toString();
 	}
 	
+	/**
+	 * Shrink the backing arrays so that they only hold the stored features.
+	 * Called once an example has been fully read in.
+	 */
+	void trimToSize(){
+		if( !shared && indices.length > numFeatures && numFeatures > 0 ){
+			indices = Arrays.copyOf(indices, numFeatures);
+			values = Arrays.copyOf(values, numFeatures);
+		}
+	}
+	
+	/**
+	 * Binary search for featureNum in the stored features
+	 * 
+	 * @param featureNum
+	 * @return the position of featureNum if it is stored, otherwise -(insertion point)-1
+	 */
+	int find(int featureNum){
+		int pos = Arrays.binarySearch(indices, offset, offset + numFeatures, featureNum);
+		return pos >= 0 ? pos - offset : pos + offset;
+	}
+	
+	/**
+	 * Copy the features out of the shared CSRMatrix arrays so that this example
+	 * can be modified without changing the matrix.
+	 */
+	private void unshare(){
+		indices = Arrays.copyOfRange(indices, offset, offset + Math.max(numFeatures, 1));
+		values = Arrays.copyOfRange(values, offset, offset + Math.max(numFeatures, 1));
+		offset = 0;
+		shared = false;
+	}
+	
+	/**
+	 * Insert a new feature at position pos, shifting the later features over.
+	 * 
+	 * @param pos
+	 * @param featureNum
+	 * @param value
+	 */
+	private void insertAt(int pos, int featureNum, double value){
+		if( numFeatures == indices.length ){
+			int capacity = Math.max(INITIAL_CAPACITY, indices.length*2);
+			indices = Arrays.copyOf(indices, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		
+		if( pos < numFeatures ){
+			System.arraycopy(indices, pos, indices, pos+1, numFeatures-pos);
+			System.arraycopy(values, pos, values, pos+1, numFeatures-pos);
+		}
+		
+		indices[pos] = featureNum;
+		values[pos] = value;
+		numFeatures++;
+	}
+	
 	/**
 	 * Helper function to output integers as integer strings instead of as doubles
 	 * 
@@ -157,4 +391,40 @@ public class Example {
 			return Double.toString(val);
 		}
 	}
+	
+	/**
+	 * Read-only set view of the feature indices stored in this example.
+	 */
+	private class FeatureIndexSet extends AbstractSet<Integer>{
+		@Override
+		public Iterator<Integer> iterator() {
+			return new Iterator<Integer>(){
+				private int next = 0;
+				
+				@Override
+				public boolean hasNext() {
+					return next < getFeatureCount();
+				}
+				
+				@Override
+				public Integer next() {
+					if( next >= getFeatureCount() ){
+						throw new NoSuchElementException();
+					}
+					
+					return getFeatureIndexAt(next++);
+				}
+			};
+		}
+		
+		@Override
+		public int size() {
+			return getFeatureCount();
+		}
+		
+		@Override
+		public boolean contains(Object o){
+			return o instanceof Integer && find((Integer)o) >= 0;
+		}
+	}
 }
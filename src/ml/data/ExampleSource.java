@@ -0,0 +1,20 @@
+package ml.data;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A source of examples that can be read through more than once, e.g. a file that
+ * is re-read for each training iteration instead of being held in memory.
+ * 
+ * @author dkauchak
+ */
+public interface ExampleSource {
+	/**
+	 * Start a new pass over the examples
+	 * 
+	 * @return the examples, from the beginning
+	 * @throws IOException
+	 */
+	public Iterator<Example> open() throws IOException;
+}
@@ -0,0 +1,95 @@
+package ml.data;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A class for reading data examples from CSV files that works directly on the
+ * bytes of the file.  Lines are parsed out of a reusable buffer and numbers are
+ * parsed in place, so no Strings are created per line or per value.  The
+ * examples produced are the same as those from CSVDataReader.
+ * 
+ * @author dkauchak
+ */
+public class FastCSVDataReader extends ByteLineReader{
+	private int labelIndex; // the index that the label is at (0-based)
+	
+	private int numColumns = 1; // used to size the examples
+	
+	/**
+	 * Create a new reader to read the data from in.  If the input has header
+	 * lines, read them first with readHeader.
+	 * 
+	 * @param in
+	 * @param labelIndex the index where the label of the data is at
+	 */
+	public FastCSVDataReader(ReadableByteChannel in, int labelIndex){
+		this(in, labelIndex, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a new reader that reads at most maxBytes from in.  The data read
+	 * must end at the end of a line.
+	 * 
+	 * @param in
+	 * @param labelIndex the index where the label of the data is at
+	 * @param maxBytes the number of bytes to read
+	 */
+	public FastCSVDataReader(ReadableByteChannel in, int labelIndex, long maxBytes){
+		super(in, maxBytes);
+		this.labelIndex = labelIndex;
+	}
+	
+	/**
+	 * Set the index that the label is at (0-based)
+	 * 
+	 * @param labelIndex
+	 */
+	public void setLabelIndex(int labelIndex){
+		this.labelIndex = labelIndex;
+	}
+	
+	@Override
+	public Example next() {
+		Example data = null;
+		
+		if( hasNext() ){
+			data = new Example(numColumns);
+			
+			// String.split drops trailing empty values, so we do too
+			int end = lineEnd;
+			
+			while( end > lineStart && buffer[end-1] == ',' ){
+				end--;
+			}
+			
+			int column = 0;
+			int featureIndex = 0;
+			int start = lineStart;
+			
+			while( start <= end ){
+				int comma = start;
+				
+				while( comma < end && buffer[comma] != ',' ){
+					comma++;
+				}
+				
+				double value = parseDouble(buffer, start, comma);
+				
+				if( column == labelIndex ){
+					data.setLabel(value);
+				}else{
+					data.addFeature(featureIndex, value);
+					featureIndex++;
+				}
+				
+				column++;
+				start = comma+1;
+			}
+			
+			numColumns = Math.max(numColumns, column);
+			consumeLine();
+		}
+		
+		return data;
+	}
+}
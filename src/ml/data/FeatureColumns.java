@@ -0,0 +1,125 @@
+package ml.data;
+
+/**
+ * A column-major (feature-major) view of a data set.  For every feature index
+ * the rows with a non-zero value for that feature are stored, in increasing
+ * row order, in one contiguous section of the rows/values arrays.
+ * 
+ * Scanning a column touches only the examples that actually have the feature
+ * and reads memory in order, which is what split search in tree induction
+ * (and inverted index lookups) need.
+ * 
+ * @author dkauchak
+ */
+public class FeatureColumns {
+	private int numRows;
+	private int[] columnOffsets; // column f is columnOffsets[f] to columnOffsets[f+1]
+	private int[] rows;
+	private double[] values;
+	
+	/**
+	 * Build the columns for all of the examples in data.  Rows are numbered
+	 * in the order of the data set.
+	 * 
+	 * @param data
+	 */
+	public FeatureColumns(DataSet data){
+		numRows = data.size();
+		
+		int numColumns = 0;
+		
+		for( int f: data.getAllFeatureIndices() ){
+			numColumns = Math.max(numColumns, f+1);
+		}
+		
+		for( Example e: data ){
+			if( e.getFeatureCount() > 0 ){
+				numColumns = Math.max(numColumns, e.getFeatureIndexAt(e.getFeatureCount()-1)+1);
+			}
+		}
+		
+		// first pass: count the non-zero entries in each column
+		columnOffsets = new int[numColumns+1];
+		
+		for( Example e: data ){
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				if( e.getFeatureValueAt(i) != 0.0 ){
+					columnOffsets[e.getFeatureIndexAt(i)+1]++;
+				}
+			}
+		}
+		
+		for( int f = 0; f < numColumns; f++ ){
+			columnOffsets[f+1] += columnOffsets[f];
+		}
+		
+		// second pass: fill in the entries.  Since we go through the rows in
+		// order, each column ends up sorted by row.
+		rows = new int[columnOffsets[numColumns]];
+		values = new double[columnOffsets[numColumns]];
+		int[] next = new int[numColumns];
+		System.arraycopy(columnOffsets, 0, next, 0, numColumns);
+		
+		for( int row = 0; row < numRows; row++ ){
+			Example e = data.get(row);
+			
+			for( int i = 0; i < e.getFeatureCount(); i++ ){
+				double value = e.getFeatureValueAt(i);
+				
+				if( value != 0.0 ){
+					int pos = next[e.getFeatureIndexAt(i)]++;
+					rows[pos] = row;
+					values[pos] = value;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of rows (examples) covered by the columns
+	 */
+	public int numRows(){
+		return numRows;
+	}
+	
+	/**
+	 * @return the number of columns, i.e. one more than the largest feature index
+	 */
+	public int numColumns(){
+		return columnOffsets.length-1;
+	}
+	
+	/**
+	 * Get the position of the first entry of the column for featureIndex
+	 * 
+	 * @param featureIndex
+	 * @return the start (inclusive) of the column in getRows()/getValues()
+	 */
+	public int columnStart(int featureIndex){
+		return featureIndex < numColumns() ? columnOffsets[featureIndex] : 0;
+	}
+	
+	/**
+	 * Get the position after the last entry of the column for featureIndex
+	 * 
+	 * @param featureIndex
+	 * @return the end (exclusive) of the column in getRows()/getValues()
+	 */
+	public int columnEnd(int featureIndex){
+		return featureIndex < numColumns() ? columnOffsets[featureIndex+1] : 0;
+	}
+	
+	/**
+	 * @return the row of every entry, column after column
+	 */
+	public int[] getRows(){
+		return rows;
+	}
+	
+	/**
+	 * @return the (non-zero) value of every entry, column after column
+	 */
+	public double[] getValues(){
+		return values;
+	}
+}
@@ -0,0 +1,192 @@
+package ml.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The names of the features of a data set, i.e. the mapping from feature indices
+ * (0 to getNumFeatures()-1) to feature names.
+ * 
+ * The names are immutable, so a data set shares them with all of its splits,
+ * cross-validation folds and copies instead of copying them.  The names are only
+ * needed for printing (e.g. DecisionTreeClassifier.toString), so they can also
+ * stay on disk: for data sets read from a DataSetCache the names are decoded from
+ * the mapped cache file the first time a name is looked up.  Features don't
+ * have to have names (e.g. hashed or sparse features), in which case only the
+ * number of features is stored.
+ * 
+ * @author dkauchak
+ */
+public class FeatureNames extends AbstractMap<Integer, String> {
+	private int numFeatures;
+	private String[] names; // null until loaded, or if the features don't have names
+	private int numNames;
+	
+	// the encoded names still to be loaded, null once loaded
+	private ByteBuffer encoded;
+	
+	/**
+	 * Copy the names in featureMap.  The features are numbered 0 to the largest
+	 * index in featureMap, so the indices should be contiguous.
+	 * 
+	 * @param featureMap
+	 */
+	public FeatureNames(Map<Integer, String> featureMap){
+		for( int index: featureMap.keySet() ){
+			numFeatures = Math.max(numFeatures, index+1);
+		}
+		
+		names = new String[numFeatures];
+		
+		for( Map.Entry<Integer, String> entry: featureMap.entrySet() ){
+			names[entry.getKey()] = entry.getValue();
+		}
+		
+		numNames = featureMap.size();
+	}
+	
+	/**
+	 * @param names the name of each feature, which is kept rather than copied
+	 */
+	FeatureNames(String[] names){
+		this.names = names;
+		numFeatures = names.length;
+		numNames = names.length;
+	}
+	
+	/**
+	 * Names to be decoded on first use from the feature map section of a data set
+	 * cache file: (int index, int length, UTF-8 bytes) per name
+	 * 
+	 * @param numFeatures
+	 * @param numNames the number of names encoded
+	 * @param encoded
+	 */
+	FeatureNames(int numFeatures, int numNames, ByteBuffer encoded){
+		this.numFeatures = numFeatures;
+		this.numNames = numNames;
+		this.encoded = numNames > 0 ? encoded : null;
+	}
+	
+	/**
+	 * @param numFeatures
+	 * @return numFeatures features without names
+	 */
+	public static FeatureNames unnamed(int numFeatures){
+		return new FeatureNames(numFeatures, 0, null);
+	}
+	
+	/**
+	 * @return the number of features, whether or not they have names
+	 */
+	public int getNumFeatures(){
+		return numFeatures;
+	}
+	
+	/**
+	 * @param index
+	 * @return the name of feature index, or null if it doesn't have one
+	 */
+	public String getName(int index){
+		String[] names = getNames();
+		return names != null && index >= 0 && index < names.length ? names[index] : null;
+	}
+	
+	@Override
+	public String get(Object key){
+		return key instanceof Integer ? getName((Integer)key) : null;
+	}
+	
+	@Override
+	public boolean containsKey(Object key){
+		return get(key) != null;
+	}
+	
+	/**
+	 * @return the number of features with names
+	 */
+	@Override
+	public int size(){
+		return numNames;
+	}
+	
+	@Override
+	public Set<Entry<Integer, String>> entrySet(){
+		return new AbstractSet<Entry<Integer, String>>(){
+			public int size(){
+				return numNames;
+			}
+			
+			public Iterator<Entry<Integer, String>> iterator(){
+				final String[] names = getNames();
+				
+				return new Iterator<Entry<Integer, String>>(){
+					private int next = nextNamed(0);
+					
+					public boolean hasNext(){
+						return next < numFeatures;
+					}
+					
+					public Entry<Integer, String> next(){
+						if( next >= numFeatures ){
+							throw new NoSuchElementException();
+						}
+						
+						Entry<Integer, String> entry = new SimpleImmutableEntry<Integer, String>(next, names[next]);
+						next = nextNamed(next+1);
+						return entry;
+					}
+					
+					public void remove(){
+						throw new UnsupportedOperationException();
+					}
+					
+					private int nextNamed(int index){
+						while( names != null && index < numFeatures && names[index] == null ){
+							index++;
+						}
+						
+						return names == null ? numFeatures : index;
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * @return the names, decoding them first if they haven't been yet
+	 */
+	private synchronized String[] getNames(){
+		if( encoded != null ){
+			String[] decoded = new String[numFeatures];
+			ByteBuffer buffer = encoded.duplicate();
+			byte[] bytes = new byte[64];
+			
+			for( int i = 0; i < numNames; i++ ){
+				int index = buffer.getInt();
+				int length = buffer.getInt();
+				
+				if( length > bytes.length ){
+					bytes = new byte[Math.max(length, bytes.length*2)];
+				}
+				
+				buffer.get(bytes, 0, length);
+				
+				if( index >= 0 && index < numFeatures ){
+					decoded[index] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+				}
+			}
+			
+			names = decoded;
+			encoded = null;
+		}
+		
+		return names;
+	}
+}
@@ -0,0 +1,69 @@
+package ml.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+/**
+ * An ExampleSource that re-reads a data file (in one of the formats read by
+ * DataSet) for every pass, so that only the examples currently being used need to
+ * be in memory.  Only one pass is open at a time: opening a new pass closes the
+ * file of the previous one.
+ * 
+ * @author dkauchak
+ */
+public class FileExampleSource implements ExampleSource, Closeable {
+	private String filename;
+	private int fileType;
+	
+	private Closeable current = null; // the file of the current pass
+	
+	/**
+	 * @param filename the location of the file
+	 * @param fileType what type of file, using the DataSet constants (e.g. DataSet.CSVFILE)
+	 */
+	public FileExampleSource(String filename, int fileType){
+		if( fileType < DataSet.CSVFILE || fileType > DataSet.LIBSVMFILE ){
+			throw new IllegalArgumentException("Unsupported file type: " + fileType);
+		}
+		
+		this.filename = filename;
+		this.fileType = fileType;
+	}
+	
+	@Override
+	public Iterator<Example> open() throws IOException {
+		close();
+		
+		if( fileType == DataSet.CSVFILE ){
+			FileChannel in = FileChannel.open(Paths.get(filename));
+			current = in;
+			
+			// the label is the last column, as in DataSet
+			FastCSVDataReader reader = new FastCSVDataReader(in, 0);
+			reader.setLabelIndex(reader.readHeader().split(",").length-1);
+			return reader;
+		}else if( fileType == DataSet.SPARSEFILE || fileType == DataSet.LIBSVMFILE ){
+			FileChannel in = FileChannel.open(Paths.get(filename));
+			current = in;
+			return new SparseDataReader(in, fileType == DataSet.LIBSVMFILE ? 1 : 0);
+		}else{
+			FileChannel in = FileChannel.open(Paths.get(filename));
+			current = in;
+			return new TextDataReader(in);
+		}
+	}
+	
+	/**
+	 * Close the file of the current pass, if any
+	 */
+	@Override
+	public void close() throws IOException {
+		if( current != null ){
+			current.close();
+			current = null;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package ml.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Helpers for splitting a file of line-based examples into byte ranges that
+ * can be read independently, e.g. by different threads.
+ * 
+ * @author dkauchak
+ */
+class FileRanges {
+	// don't bother splitting up less than this many bytes
+	private static final long MIN_RANGE_SIZE = 1 << 20;
+	
+	/**
+	 * Split the bytes from dataStart to the end of the file into (at most)
+	 * numRanges ranges that each start at the beginning of a line.
+	 * 
+	 * @param file
+	 * @param dataStart the first byte to include
+	 * @param numRanges the number of ranges wanted
+	 * @return the start of each range followed by the end of the file
+	 * @throws IOException
+	 */
+	static long[] split(Path file, long dataStart, int numRanges) throws IOException{
+		try( FileChannel in = FileChannel.open(file) ){
+			long size = in.size();
+			long dataSize = size - dataStart;
+			numRanges = (int)Math.max(1, Math.min(numRanges, dataSize/MIN_RANGE_SIZE));
+			
+			ArrayList<Long> boundaries = new ArrayList<Long>();
+			boundaries.add(dataStart);
+			
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+			
+			for( int i = 1; i < numRanges; i++ ){
+				long boundary = nextLineStart(in, buffer, dataStart + dataSize*i/numRanges);
+				
+				// very long lines can make neighboring boundaries the same
+				if( boundary > boundaries.get(boundaries.size()-1) && boundary < size ){
+					boundaries.add(boundary);
+				}
+			}
+			
+			boundaries.add(size);
+			
+			long[] result = new long[boundaries.size()];
+			
+			for( int i = 0; i < result.length; i++ ){
+				result[i] = boundaries.get(i);
+			}
+			
+			return result;
+		}
+	}
+	
+	/**
+	 * Open a stream over the bytes of file from start to end
+	 * 
+	 * @param file
+	 * @param start
+	 * @param end
+	 * @return the stream, which must be closed by the caller
+	 * @throws IOException
+	 */
+	static InputStream open(Path file, long start, long end) throws IOException{
+		return new RangeInputStream(FileChannel.open(file), start, end);
+	}
+	
+	/**
+	 * Find the start of the first line beginning at or after position
+	 * 
+	 * @param in
+	 * @param buffer scratch space
+	 * @param position
+	 * @return the offset of the line start, or the file size if there is none
+	 * @throws IOException
+	 */
+	private static long nextLineStart(FileChannel in, ByteBuffer buffer, long position) throws IOException{
+		// position is a line start if the byte before it ends a line
+		long current = position-1;
+		
+		while( true ){
+			buffer.clear();
+			int read = in.read(buffer, current);
+			
+			if( read <= 0 ){
+				return in.size();
+			}
+			
+			for( int i = 0; i < read; i++ ){
+				if( buffer.get(i) == '\n' ){
+					return current + i + 1;
+				}
+			}
+			
+			current += read;
+		}
+	}
+	
+	/**
+	 * An input stream over a range of a file channel
+	 */
+	private static class RangeInputStream extends InputStream{
+		private FileChannel in;
+		private long position;
+		private long end;
+		
+		public RangeInputStream(FileChannel in, long start, long end){
+			this.in = in;
+			this.position = start;
+			this.end = end;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if( position >= end ){
+				return -1;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, (int)Math.min(len, end-position));
+			int read = in.read(buffer, position);
+			
+			if( read > 0 ){
+				position += read;
+			}
+			
+			return read;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package ml.data;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import ml.utils.MurmurHash;
+
+/**
+ * A class for reading text examples (in the same format as TextDataReader) that
+ * uses the hashing trick instead of a vocabulary: each word, and optionally each
+ * word n-gram, is hashed into one of 2^hashBits features.  Another bit of the hash
+ * decides whether the occurrence adds +1 or -1 to the feature, so collisions tend
+ * to cancel out rather than accumulate.  Features that cancel out to exactly 0
+ * aren't stored.
+ * 
+ * No dictionary is kept, so memory use doesn't grow with the corpus and the reader
+ * has no state shared between lines other than reusable buffers.
+ * 
+ * @author dkauchak
+ */
+public class HashingTextDataReader implements Iterator<Example>, Closeable{
+	private static final int SEED = 0x5bd1e995;
+	
+	private String nextLine; // next line in the file
+	private BufferedReader in; // source to be reading data from
+	
+	private int hashBits;
+	private int mask;
+	private int ngramOrder;
+	
+	private WordTokenizer tokenizer = new WordTokenizer();
+	private int[] wordHashes = new int[64];
+	private int[] occurrences = new int[64]; // the hashed occurrences of a line (see addHashed)
+	private int numOccurrences;
+	
+	/**
+	 * Hash only the words of each example
+	 * 
+	 * @param textFile the text file containing the examples
+	 * @param hashBits the number of features is 2^hashBits (at most 30)
+	 */
+	public HashingTextDataReader(String textFile, int hashBits){
+		this(textFile, hashBits, 1);
+	}
+	
+	/**
+	 * @param textFile the text file containing the examples
+	 * @param hashBits the number of features is 2^hashBits (at most 30)
+	 * @param ngramOrder hash all word n-grams up to this length (1 for just words)
+	 */
+	public HashingTextDataReader(String textFile, int hashBits, int ngramOrder){
+		if( hashBits < 1 || hashBits > 30 ){
+			throw new IllegalArgumentException("hashBits must be between 1 and 30: " + hashBits);
+		}
+		
+		if( ngramOrder < 1 ){
+			throw new IllegalArgumentException("ngramOrder must be at least 1: " + ngramOrder);
+		}
+		
+		this.hashBits = hashBits;
+		this.mask = (1 << hashBits) - 1;
+		this.ngramOrder = ngramOrder;
+		
+		try {
+			in = new BufferedReader(new FileReader(textFile));
+			nextLine = in.readLine();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return the number of features examples from this reader can have
+	 */
+	public int getNumFeatures(){
+		return 1 << hashBits;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return nextLine != null;
+	}
+	
+	@Override
+	public Example next() {
+		Example data = null;
+		
+		if( hasNext() ){
+			data = new Example();
+			
+			// hash each of the words, keeping the hashes in order for the n-grams
+			data.setLabel(tokenizer.start(nextLine));
+			int numWords = 0;
+			
+			while( tokenizer.nextWord() ){
+				if( numWords == wordHashes.length ){
+					wordHashes = Arrays.copyOf(wordHashes, numWords*2);
+				}
+				
+				wordHashes[numWords++] = MurmurHash.hash(tokenizer.word(), 0, tokenizer.length(), SEED);
+			}
+			
+			numOccurrences = 0;
+			
+			for( int i = 0; i < numWords; i++ ){
+				addHashed(wordHashes[i]);
+				
+				for( int n = 2; n <= ngramOrder && i+n <= numWords; n++ ){
+					addHashed(MurmurHash.hash(wordHashes, i, n, SEED));
+				}
+			}
+			
+			addOccurrences(data);
+			
+			try {
+				nextLine = in.readLine();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return data;
+	}
+	
+	@Override
+	public void remove() {
+		// OPTIONAL, so we won't implement
+	}
+	
+	/**
+	 * Close the underlying file
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	/**
+	 * Record one signed occurrence of the hashed feature as featureIndex*2, plus
+	 * 1 if it's negative
+	 * 
+	 * @param hash
+	 */
+	private void addHashed(int hash){
+		if( numOccurrences == occurrences.length ){
+			occurrences = Arrays.copyOf(occurrences, numOccurrences*2);
+		}
+		
+		// the top bit of the hash is the sign, so it isn't part of the index
+		occurrences[numOccurrences++] = ((hash & mask) << 1) | (hash >>> 31);
+	}
+	
+	/**
+	 * Add the occurrences recorded for the line to data.  Sorting them puts the
+	 * occurrences of each feature together and the features in increasing order,
+	 * so each feature is appended once with the sum of its signs.  Features whose
+	 * occurrences cancel out to 0 aren't added.
+	 * 
+	 * @param data
+	 */
+	private void addOccurrences(Example data){
+		Arrays.sort(occurrences, 0, numOccurrences);
+		
+		for( int i = 0; i < numOccurrences; ){
+			int featureIndex = occurrences[i] >>> 1;
+			int sum = 0;
+			
+			for( ; i < numOccurrences && occurrences[i] >>> 1 == featureIndex; i++ ){
+				sum += (occurrences[i] & 1) == 0 ? 1 : -1;
+			}
+			
+			if( sum != 0 ){
+				data.addFeature(featureIndex, sum);
+			}
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package ml.data;
+
+import java.util.Arrays;
+
+import ml.utils.BoundedHeap;
+
+/**
+ * A KD-tree over some of the examples of a data set for exact nearest neighbor
+ * search by squared Euclidean distance.  Each node splits its examples at the
+ * median of the feature with the widest range, and the search visits the closer
+ * child first and skips any node whose bounding box is farther away than the
+ * current k-th nearest neighbor.  On dense, low-dimensional data (up to a few
+ * dozen features) this only looks at a small part of the examples.
+ * 
+ * The examples are copied into the tree as dense rows, ordered so that every
+ * node is a contiguous range.  The tree doesn't change after it's built, so
+ * any number of threads can search it at once (each with its own BoundedHeap).
+ * 
+ * @author dkauchak
+ */
+public class KDTree {
+	private static final int LEAF_SIZE = 16;
+	
+	private int numDimensions;
+	private int[] rows; // the data set row of each point, in tree order
+	private double[] points; // numDimensions values per point
+	private double[] norms; // the squared norm of each point
+	
+	// the nodes, with node 0 the root: the range of points, the children (-1 for
+	// leaves) and the bounding box of the points
+	private int numNodes = 0;
+	private int[] nodeStart;
+	private int[] nodeEnd;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+	private double[] boxMin; // numDimensions per node
+	private double[] boxMax;
+	
+	/**
+	 * Build the tree
+	 * 
+	 * @param data
+	 * @param rows the rows of data to put in the tree
+	 * @param rowNorms the squared norm of every row of data (see Example.squaredNorm)
+	 */
+	public KDTree(DataSet data, int[] rows, double[] rowNorms){
+		this.rows = rows.clone();
+		
+		numDimensions = data.getNumFeatures();
+		
+		for( int row: rows ){
+			Example e = data.get(row);
+			
+			if( e.getFeatureCount() > 0 ){
+				numDimensions = Math.max(numDimensions, e.getFeatureIndexAt(e.getFeatureCount()-1)+1);
+			}
+		}
+		
+		points = new double[rows.length*numDimensions];
+		norms = new double[rows.length];
+		
+		for( int i = 0; i < rows.length; i++ ){
+			Example e = data.get(rows[i]);
+			
+			for( int j = 0; j < e.getFeatureCount(); j++ ){
+				points[i*numDimensions + e.getFeatureIndexAt(j)] = e.getFeatureValueAt(j);
+			}
+			
+			norms[i] = rowNorms[rows[i]];
+		}
+		
+		// a tree with leaves of at least LEAF_SIZE/2 points has fewer than this many nodes
+		int maxNodes = Math.max(1, 4*rows.length/LEAF_SIZE + 1);
+		nodeStart = new int[maxNodes];
+		nodeEnd = new int[maxNodes];
+		nodeLeft = new int[maxNodes];
+		nodeRight = new int[maxNodes];
+		boxMin = new double[maxNodes*numDimensions];
+		boxMax = new double[maxNodes*numDimensions];
+		
+		build(0, rows.length);
+	}
+	
+	/**
+	 * @return the number of points in the tree
+	 */
+	public int size(){
+		return rows.length;
+	}
+	
+	/**
+	 * @return the number of dimensions of the points, i.e. the size of the
+	 * working space needed by search
+	 */
+	public int getNumDimensions(){
+		return numDimensions;
+	}
+	
+	/**
+	 * Find the closest rows to query, offering each row that might be one of them
+	 * to neighbors with its squared Euclidean distance to query, computed as
+	 * ||query||^2 + ||row||^2 - 2 query.row (at least 0) like KNNClassifier does.
+	 * Rows that can't be closer than the farthest row in neighbors (if it's full)
+	 * are skipped.
+	 * 
+	 * @param query
+	 * @param point working space of getNumDimensions() for the dense query
+	 * @param neighbors
+	 */
+	public void search(Example query, double[] point, BoundedHeap neighbors){
+		if( rows.length == 0 ){
+			return;
+		}
+		
+		Arrays.fill(point, 0, numDimensions, 0.0);
+		
+		// features outside of the tree's dimensions add the same amount to every distance
+		double queryNorm = query.squaredNorm();
+		double outsideNorm = queryNorm;
+		
+		for( int i = 0; i < query.getFeatureCount(); i++ ){
+			int feature = query.getFeatureIndexAt(i);
+			
+			if( feature < numDimensions ){
+				double value = query.getFeatureValueAt(i);
+				point[feature] = value;
+				outsideNorm -= value*value;
+			}
+		}
+		
+		search(0, point, queryNorm, Math.max(outsideNorm, 0.0), neighbors);
+	}
+	
+	private void search(int node, double[] point, double queryNorm, double outsideNorm, BoundedHeap neighbors){
+		if( nodeLeft[node] == -1 ){
+			for( int i = nodeStart[node]; i < nodeEnd[node]; i++ ){
+				double dot = 0.0;
+				int offset = i*numDimensions;
+				
+				for( int j = 0; j < numDimensions; j++ ){
+					dot += point[j] * points[offset + j];
+				}
+				
+				neighbors.offer(Math.max(queryNorm + norms[i] - 2*dot, 0.0), rows[i]);
+			}
+			
+			return;
+		}
+		
+		int near = nodeLeft[node];
+		int far = nodeRight[node];
+		double nearBound = boxDistance(near, point) + outsideNorm;
+		double farBound = boxDistance(far, point) + outsideNorm;
+		
+		if( farBound < nearBound ){
+			int temp = near;
+			near = far;
+			far = temp;
+			
+			double tempBound = nearBound;
+			nearBound = farBound;
+			farBound = tempBound;
+		}
+		
+		// the bounds can tie with the farthest neighbor, which a smaller row would replace
+		if( nearBound <= neighbors.maxDistance() ){
+			search(near, point, queryNorm, outsideNorm, neighbors);
+		}
+		
+		if( farBound <= neighbors.maxDistance() ){
+			search(far, point, queryNorm, outsideNorm, neighbors);
+		}
+	}
+	
+	/**
+	 * @return the squared distance from point to the bounding box of node
+	 */
+	private double boxDistance(int node, double[] point){
+		double sum = 0.0;
+		int offset = node*numDimensions;
+		
+		for( int j = 0; j < numDimensions; j++ ){
+			double diff = 0.0;
+			
+			if( point[j] < boxMin[offset + j] ){
+				diff = boxMin[offset + j] - point[j];
+			}else if( point[j] > boxMax[offset + j] ){
+				diff = point[j] - boxMax[offset + j];
+			}
+			
+			sum += diff*diff;
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Build the subtree for the points from start to end
+	 * 
+	 * @return the node
+	 */
+	private int build(int start, int end){
+		int node = numNodes++;
+		nodeStart[node] = start;
+		nodeEnd[node] = end;
+		nodeLeft[node] = -1;
+		nodeRight[node] = -1;
+		
+		// the bounding box, and the dimension it's widest in
+		int offset = node*numDimensions;
+		int splitDimension = 0;
+		double widest = 0.0;
+		
+		for( int j = 0; j < numDimensions; j++ ){
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			
+			for( int i = start; i < end; i++ ){
+				double value = points[i*numDimensions + j];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			
+			boxMin[offset + j] = min;
+			boxMax[offset + j] = max;
+			
+			if( max - min > widest ){
+				widest = max - min;
+				splitDimension = j;
+			}
+		}
+		
+		// all of the points are the same if the box is empty
+		if( end - start > LEAF_SIZE && widest > 0 ){
+			int middle = (start + end) >>> 1;
+			select(start, end, middle, splitDimension);
+			
+			nodeLeft[node] = build(start, middle);
+			nodeRight[node] = build(middle, end);
+		}
+		
+		return node;
+	}
+	
+	/**
+	 * Reorder the points from start to end so that the point at position k is
+	 * the one that would be there if they were sorted by dimension, with the
+	 * smaller ones before it and the larger ones after it (quickselect)
+	 */
+	private void select(int start, int end, int k, int dimension){
+		int low = start;
+		int high = end-1;
+		
+		while( low < high ){
+			double pivot = points[((low + high) >>> 1)*numDimensions + dimension];
+			int i = low;
+			int j = high;
+			
+			while( i <= j ){
+				while( points[i*numDimensions + dimension] < pivot ){
+					i++;
+				}
+				
+				while( points[j*numDimensions + dimension] > pivot ){
+					j--;
+				}
+				
+				if( i <= j ){
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			
+			if( k <= j ){
+				high = j;
+			}else if( k >= i ){
+				low = i;
+			}else{
+				return;
+			}
+		}
+	}
+	
+	private void swap(int i, int j){
+		int row = rows[i];
+		rows[i] = rows[j];
+		rows[j] = row;
+		
+		double norm = norms[i];
+		norms[i] = norms[j];
+		norms[j] = norm;
+		
+		for( int d = 0; d < numDimensions; d++ ){
+			double value = points[i*numDimensions + d];
+			points[i*numDimensions + d] = points[j*numDimensions + d];
+			points[j*numDimensions + d] = value;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import ml.utils.MurmurHash;
+
+/**
+ * Multi-table locality-sensitive hashing over some of the examples of a data set,
+ * for finding candidate nearest neighbors without comparing the query to every
+ * example.  Each table hashes an example to a bucket with a signature of
+ * signatureWidth random projections of its features:
+ * 
+ * - for cosine distance, the sides of random hyperplanes (sign of the projection)
+ * - for Euclidean distance, p-stable hashes floor((projection + offset)/bucketWidth)
+ * 
+ * Close examples are likely to share a bucket in at least one of the tables, so
+ * the candidates are the examples in the query's bucket in each table.  More
+ * tables find more of the true neighbors (recall) and wider signatures give
+ * smaller buckets (speed).
+ * 
+ * The projections are Gaussian and never stored: the coefficient of a feature is
+ * looked up in a fixed table of Gaussian values by a hash of the feature and the
+ * projection, so the index works for any number of features (e.g. a text
+ * vocabulary).  The buckets of each table are kept as sorted keys with the rows
+ * of each bucket in one contiguous section.  The index doesn't change after it's
+ * built, so any number of threads can query it at once.
+ * 
+ * @author dkauchak
+ */
+public class LSHIndex {
+	private static final int GAUSSIAN_BITS = 16;
+	
+	private int numTables;
+	private int signatureWidth;
+	private double bucketWidth; // 0 for random hyperplanes (cosine)
+	
+	private double[] gaussians; // 2^GAUSSIAN_BITS samples
+	private double[] offsets; // for each projection, in [0, bucketWidth)
+	
+	// for each table: the distinct bucket keys in increasing order, and the rows of
+	// bucket b from bucketOffsets[b] to bucketOffsets[b+1] in bucketRows
+	private long[][] bucketKeys;
+	private int[][] bucketOffsets;
+	private int[][] bucketRows;
+	
+	/**
+	 * Build an index for cosine distance with random hyperplanes
+	 * 
+	 * @param data
+	 * @param rows the rows of data to index
+	 * @param numTables
+	 * @param signatureWidth the number of hyperplanes per table, at most 64
+	 * @param seed for the random projections
+	 * @return the index
+	 */
+	public static LSHIndex forCosine(DataSet data, int[] rows, int numTables, int signatureWidth, long seed){
+		return new LSHIndex(data, rows, numTables, Math.min(signatureWidth, 64), 0.0, seed);
+	}
+	
+	/**
+	 * Build an index for Euclidean distance with p-stable hashes
+	 * 
+	 * @param data
+	 * @param rows the rows of data to index
+	 * @param numTables
+	 * @param signatureWidth the number of hashes per table
+	 * @param bucketWidth the width of the buckets along each projection, or 0 to
+	 * pick one from the distances between the examples (see estimateBucketWidth)
+	 * @param seed for the random projections and offsets
+	 * @return the index
+	 */
+	public static LSHIndex forEuclidean(DataSet data, int[] rows, int numTables, int signatureWidth, double bucketWidth, long seed){
+		if( bucketWidth <= 0 ){
+			bucketWidth = estimateBucketWidth(data, rows, seed);
+		}
+		
+		return new LSHIndex(data, rows, numTables, signatureWidth, bucketWidth, seed);
+	}
+	
+	private LSHIndex(DataSet data, int[] rows, int numTables, int signatureWidth, double bucketWidth, long seed){
+		this.numTables = numTables;
+		this.signatureWidth = signatureWidth;
+		this.bucketWidth = bucketWidth;
+		
+		Random random = new Random(seed);
+		gaussians = new double[1 << GAUSSIAN_BITS];
+		
+		for( int i = 0; i < gaussians.length; i++ ){
+			gaussians[i] = random.nextGaussian();
+		}
+		
+		offsets = new double[numTables*signatureWidth];
+		
+		for( int i = 0; i < offsets.length; i++ ){
+			offsets[i] = random.nextDouble()*bucketWidth;
+		}
+		
+		// the key of every row in every table
+		long[][] keys = new long[numTables][rows.length];
+		long[] rowKeys = new long[numTables];
+		double[] projections = new double[numTables*signatureWidth];
+		
+		for( int i = 0; i < rows.length; i++ ){
+			getKeys(data.get(rows[i]), projections, rowKeys);
+			
+			for( int t = 0; t < numTables; t++ ){
+				keys[t][i] = rowKeys[t];
+			}
+		}
+		
+		bucketKeys = new long[numTables][];
+		bucketOffsets = new int[numTables][];
+		bucketRows = new int[numTables][];
+		
+		for( int t = 0; t < numTables; t++ ){
+			buildTable(t, keys[t], rows);
+			keys[t] = null;
+		}
+	}
+	
+	/**
+	 * Group the rows of table t by key
+	 */
+	private void buildTable(int t, long[] keys, int[] rows){
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		
+		int numBuckets = 0;
+		
+		for( int i = 0; i < sorted.length; i++ ){
+			if( i == 0 || sorted[i] != sorted[i-1] ){
+				sorted[numBuckets++] = sorted[i];
+			}
+		}
+		
+		long[] distinct = Arrays.copyOf(sorted, numBuckets);
+		
+		// count the rows in each bucket, then fill them in in row order
+		int[] bucket = new int[keys.length];
+		int[] offsets = new int[numBuckets+1];
+		
+		for( int i = 0; i < keys.length; i++ ){
+			bucket[i] = Arrays.binarySearch(distinct, keys[i]);
+			offsets[bucket[i]+1]++;
+		}
+		
+		for( int b = 0; b < numBuckets; b++ ){
+			offsets[b+1] += offsets[b];
+		}
+		
+		int[] next = Arrays.copyOf(offsets, numBuckets);
+		int[] bucketed = new int[keys.length];
+		
+		for( int i = 0; i < keys.length; i++ ){
+			bucketed[next[bucket[i]]++] = rows[i];
+		}
+		
+		bucketKeys[t] = distinct;
+		bucketOffsets[t] = offsets;
+		bucketRows[t] = bucketed;
+	}
+	
+	/**
+	 * @return the number of tables, i.e. the number of keys of a query
+	 */
+	public int getNumTables(){
+		return numTables;
+	}
+	
+	/**
+	 * @return the number of random projections of a query
+	 */
+	public int getNumProjections(){
+		return numTables*signatureWidth;
+	}
+	
+	/**
+	 * Find the rows that share a bucket with query in at least one table.  Rows
+	 * are only added once: a row is skipped if its mark is already mark, and the
+	 * marks of the rows added are set to mark.
+	 * 
+	 * @param query
+	 * @param projections working space of getNumProjections() for the projections of query
+	 * @param keys working space of getNumTables() for the bucket keys of query
+	 * @param candidates where to put the rows, with room for all of the rows
+	 * @param marks a mark for each row of the data set
+	 * @param mark the mark of the current query
+	 * @return the number of candidates
+	 */
+	public int getCandidates(Example query, double[] projections, long[] keys, int[] candidates, int[] marks, int mark){
+		getKeys(query, projections, keys);
+		
+		int numCandidates = 0;
+		
+		for( int t = 0; t < numTables; t++ ){
+			int b = Arrays.binarySearch(bucketKeys[t], keys[t]);
+			
+			if( b < 0 ){
+				continue;
+			}
+			
+			for( int i = bucketOffsets[t][b]; i < bucketOffsets[t][b+1]; i++ ){
+				int row = bucketRows[t][i];
+				
+				if( marks[row] != mark ){
+					marks[row] = mark;
+					candidates[numCandidates++] = row;
+				}
+			}
+		}
+		
+		return numCandidates;
+	}
+	
+	/**
+	 * Hash e into a bucket key for each table
+	 * 
+	 * @param e
+	 * @param projections working space for the projections of e
+	 * @param keys where to put the key of each table
+	 */
+	private void getKeys(Example e, double[] projections, long[] keys){
+		Arrays.fill(projections, 0.0);
+		int mask = gaussians.length-1;
+		
+		for( int i = 0; i < e.getFeatureCount(); i++ ){
+			int feature = e.getFeatureIndexAt(i);
+			double value = e.getFeatureValueAt(i);
+			
+			for( int p = 0; p < projections.length; p++ ){
+				projections[p] += value * gaussians[MurmurHash.hash(feature, p) & mask];
+			}
+		}
+		
+		for( int t = 0; t < numTables; t++ ){
+			long key = 0;
+			
+			for( int j = 0; j < signatureWidth; j++ ){
+				int p = t*signatureWidth + j;
+				
+				if( bucketWidth == 0 ){
+					key = (key << 1) | (projections[p] >= 0 ? 1 : 0);
+				}else{
+					// combine the hashes, which can collide but only adds candidates
+					long hash = (long)Math.floor((projections[p] + offsets[p])/bucketWidth);
+					key = (key + hash) * 0x9E3779B97F4A7C15L;
+				}
+			}
+			
+			keys[t] = key;
+		}
+	}
+	
+	/**
+	 * Pick a bucket width for Euclidean hashing: 4 times the median distance from
+	 * a sample of the rows to their nearest neighbor in another sample, which
+	 * makes each hash likely to keep near neighbors together.
+	 * 
+	 * @param data
+	 * @param rows
+	 * @param seed
+	 * @return the bucket width
+	 */
+	public static double estimateBucketWidth(DataSet data, int[] rows, long seed){
+		Random random = new Random(seed);
+		int numQueries = Math.min(rows.length, 100);
+		int numReferences = Math.min(rows.length, 2000);
+		
+		double[] nearest = new double[numQueries];
+		int numNearest = 0;
+		
+		for( int q = 0; q < numQueries; q++ ){
+			int queryRow = rows[random.nextInt(rows.length)];
+			Example query = data.get(queryRow);
+			double queryNorm = query.squaredNorm();
+			double best = Double.POSITIVE_INFINITY;
+			
+			for( int r = 0; r < numReferences; r++ ){
+				int row = rows[(int)((long)r*rows.length/numReferences)];
+				
+				if( row != queryRow ){
+					Example other = data.get(row);
+					double distance = queryNorm + other.squaredNorm() - 2*query.dotProduct(other);
+					
+					// ignore duplicates
+					if( distance > 0 ){
+						best = Math.min(best, distance);
+					}
+				}
+			}
+			
+			if( best < Double.POSITIVE_INFINITY ){
+				nearest[numNearest++] = Math.sqrt(best);
+			}
+		}
+		
+		if( numNearest == 0 ){
+			return 1.0;
+		}
+		
+		Arrays.sort(nearest, 0, numNearest);
+		return 4*nearest[numNearest/2];
+	}
+}
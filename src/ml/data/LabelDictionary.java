@@ -0,0 +1,140 @@
+package ml.data;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The distinct labels of a data set, each with a dense id 0, 1, ..., size()-1 given
+ * out in the order the labels are added.  Classifiers can use the ids to index
+ * arrays of counts instead of keeping maps from labels to counts.
+ * 
+ * As a Set<Double>, the labels iterate in id order.  Labels are compared like
+ * Double.equals, i.e. as in a HashSet<Double>.
+ * 
+ * @author dkauchak
+ */
+public class LabelDictionary extends AbstractSet<Double> {
+	private double[] labels = new double[4]; // the label for each id
+	private int[] table = new int[8]; // open addressing table of ids, -1 if empty
+	private int size = 0;
+	
+	public LabelDictionary(){
+		Arrays.fill(table, -1);
+	}
+	
+	/**
+	 * Get the id of a label
+	 * 
+	 * @param label
+	 * @return the id, or -1 if the label isn't in the dictionary
+	 */
+	public int getId(double label){
+		long bits = Double.doubleToLongBits(label);
+		int mask = table.length-1;
+		
+		for( int slot = hash(bits) & mask; ; slot = (slot+1) & mask ){
+			int id = table[slot];
+			
+			if( id == -1 || Double.doubleToLongBits(labels[id]) == bits ){
+				return id;
+			}
+		}
+	}
+	
+	/**
+	 * Get the id of a label, adding the label if it isn't in the dictionary yet
+	 * 
+	 * @param label
+	 * @return the id of the label
+	 */
+	public int addLabel(double label){
+		int id = getId(label);
+		
+		if( id == -1 ){
+			if( size == labels.length ){
+				labels = Arrays.copyOf(labels, size*2);
+			}
+			
+			id = size++;
+			labels[id] = label;
+			
+			// keep the table at most half full
+			if( size*2 > table.length ){
+				table = new int[table.length*2];
+				Arrays.fill(table, -1);
+				
+				for( int i = 0; i < size; i++ ){
+					insert(i);
+				}
+			}else{
+				insert(id);
+			}
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * @param id
+	 * @return the label with that id
+	 */
+	public double getLabel(int id){
+		if( id < 0 || id >= size ){
+			throw new IndexOutOfBoundsException("No label with id " + id);
+		}
+		
+		return labels[id];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Double && getId((Double)o) != -1;
+	}
+	
+	@Override
+	public Iterator<Double> iterator() {
+		return new Iterator<Double>(){
+			private int next = 0;
+			
+			public boolean hasNext(){
+				return next < size;
+			}
+			
+			public Double next(){
+				if( next >= size ){
+					throw new NoSuchElementException();
+				}
+				
+				return labels[next++];
+			}
+			
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	private void insert(int id){
+		int mask = table.length-1;
+		int slot = hash(Double.doubleToLongBits(labels[id])) & mask;
+		
+		while( table[slot] != -1 ){
+			slot = (slot+1) & mask;
+		}
+		
+		table[slot] = id;
+	}
+	
+	private static int hash(long bits){
+		// labels are often small integers, which only differ in the high bits
+		long h = bits * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
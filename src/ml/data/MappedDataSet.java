@@ -0,0 +1,360 @@
+package ml.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A read-only data set whose examples stay in a memory-mapped data set cache file
+ * (see DataSetCache.map) instead of on the heap, so it can be larger than the heap.
+ * 
+ * The examples are MappedExamples: views that read their features straight out of
+ * the mapped file.  Iterating (iterator(), shuffledIterator()) moves a single view
+ * from row to row, so a pass over the data allocates nothing per example, but an
+ * example from an iterator is only valid until the iterator's next call to next.
+ * get(i) and open() give independent views that stay valid.
+ * 
+ * @author dkauchak
+ */
+public class MappedDataSet extends DataSet {
+	// the sections are mapped in chunks of 2^SHIFT elements (512MB)
+	private static final int INT_SHIFT = 27;
+	private static final int DOUBLE_SHIFT = 26;
+	
+	private int numRows;
+	private ByteBuffer[] labels;
+	private ByteBuffer[] rowOffsets;
+	private ByteBuffer[] columns;
+	private ByteBuffer[] values;
+	private ByteBuffer[] weights; // null if all of the weights are 1
+	
+	// calculated on demand
+	private LabelDictionary labelDictionary = null;
+	private int[] labelIds;
+	
+	/**
+	 * Map the sections of a data set cache file.  The file can be closed afterwards.
+	 * 
+	 * @param channel the cache file
+	 * @param position where the labels start, followed by the row offsets, columns, values and weights
+	 * @param numRows
+	 * @param numEntries
+	 * @param hasWeights whether the file has a weight for each row
+	 * @param featureNames
+	 * @throws IOException
+	 */
+	MappedDataSet(FileChannel channel, long position, int numRows, int numEntries, boolean hasWeights, FeatureNames featureNames) throws IOException{
+		super(featureNames);
+		this.numRows = numRows;
+		
+		labels = map(channel, position, numRows, 8, DOUBLE_SHIFT);
+		position += 8L*numRows;
+		rowOffsets = map(channel, position, numRows+1, 4, INT_SHIFT);
+		position += 4L*(numRows+1);
+		columns = map(channel, position, numEntries, 4, INT_SHIFT);
+		position += 4L*numEntries;
+		values = map(channel, position, numEntries, 8, DOUBLE_SHIFT);
+		position += 8L*numEntries;
+		weights = hasWeights ? map(channel, position, numRows, 8, DOUBLE_SHIFT) : null;
+	}
+	
+	/**
+	 * Map count elements of elementSize bytes in chunks of 2^shift elements
+	 */
+	private static ByteBuffer[] map(FileChannel channel, long position, int count, int elementSize, int shift) throws IOException{
+		int chunkSize = 1 << shift;
+		ByteBuffer[] chunks = new ByteBuffer[(int)((count + (long)chunkSize - 1) >> shift)];
+		
+		for( int i = 0; i < chunks.length; i++ ){
+			long length = Math.min(chunkSize, count - (long)i*chunkSize);
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + (long)i*chunkSize*elementSize, length*elementSize);
+		}
+		
+		return chunks;
+	}
+	
+	private static int getInt(ByteBuffer[] chunks, int i){
+		return chunks[i >>> INT_SHIFT].getInt((i & ((1 << INT_SHIFT)-1)) << 2);
+	}
+	
+	private static double getDouble(ByteBuffer[] chunks, int i){
+		return chunks[i >>> DOUBLE_SHIFT].getDouble((i & ((1 << DOUBLE_SHIFT)-1)) << 3);
+	}
+	
+	@Override
+	public int size(){
+		return numRows;
+	}
+	
+	/**
+	 * @return a new view of the i-th example
+	 */
+	@Override
+	public Example get(int i){
+		if( i < 0 || i >= numRows ){
+			throw new IndexOutOfBoundsException("Row " + i + " of " + numRows);
+		}
+		
+		MappedExample example = new MappedExample();
+		example.moveTo(i);
+		return example;
+	}
+	
+	/**
+	 * Iterate over the examples in order, reusing a single example
+	 */
+	@Override
+	public Iterator<Example> iterator(){
+		return new RowIterator(null);
+	}
+	
+	/**
+	 * Iterate over the examples in a random order, reusing a single example
+	 */
+	@Override
+	public Iterator<Example> shuffledIterator(Random random){
+		return new RowIterator(DataSetView.shuffledRows(numRows, random));
+	}
+	
+	/**
+	 * A pass over the examples where each example is a separate view, so that
+	 * the examples can be held on to, e.g. in a ShuffleBuffer
+	 */
+	@Override
+	public Iterator<Example> open(){
+		return new Iterator<Example>(){
+			private int next = 0;
+			
+			public boolean hasNext(){
+				return next < numRows;
+			}
+			
+			public Example next(){
+				if( next >= numRows ){
+					throw new NoSuchElementException();
+				}
+				
+				return get(next++);
+			}
+			
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	@Override
+	public Set<Double> getLabels(){
+		return getLabelDictionary();
+	}
+	
+	@Override
+	public synchronized LabelDictionary getLabelDictionary(){
+		if( labelDictionary == null ){
+			LabelDictionary dictionary = new LabelDictionary();
+			labelIds = new int[numRows];
+			
+			for( int i = 0; i < numRows; i++ ){
+				labelIds[i] = dictionary.addLabel(getDouble(labels, i));
+			}
+			
+			labelDictionary = dictionary;
+		}
+		
+		return labelDictionary;
+	}
+	
+	@Override
+	public int getLabelId(int i){
+		getLabelDictionary();
+		return labelIds[i];
+	}
+	
+	/**
+	 * Get a separate view for each of the examples.  The list can't be modified.
+	 * 
+	 * Note: unlike for other data sets this is a copy, so avoid it for large data
+	 * sets.
+	 */
+	@Override
+	public ArrayList<Example> getData(){
+		ArrayList<Example> data = new ArrayList<Example>(numRows);
+		
+		for( int i = 0; i < numRows; i++ ){
+			data.add(get(i));
+		}
+		
+		return data;
+	}
+	
+	@Override
+	public void addData(ArrayList<Example> addMe){
+		throw new UnsupportedOperationException("Mapped data sets are read-only");
+	}
+	
+	@Override
+	public void addData(Example e){
+		throw new UnsupportedOperationException("Mapped data sets are read-only");
+	}
+	
+	/**
+	 * Mapped data sets stay in the file, so this does nothing
+	 */
+	@Override
+	public void pack(){
+	}
+	
+	@Override
+	public boolean isPacked(){
+		return false;
+	}
+	
+	/**
+	 * Copy the examples onto the heap as a CSRMatrix
+	 */
+	@Override
+	public CSRMatrix getMatrix(){
+		return new CSRMatrix(new AbstractList<Example>(){
+			private MappedExample row = new MappedExample();
+			
+			public Example get(int i){
+				row.moveTo(i);
+				return row;
+			}
+			
+			public int size(){
+				return numRows;
+			}
+		});
+	}
+	
+	/**
+	 * Goes through the rows in order, or in the order of the given rows,
+	 * moving a single example along
+	 */
+	private class RowIterator implements Iterator<Example>{
+		private int[] order; // null for the original order
+		private int next = 0;
+		private MappedExample example = new MappedExample();
+		
+		public RowIterator(int[] order){
+			this.order = order;
+		}
+		
+		public boolean hasNext(){
+			return next < numRows;
+		}
+		
+		public Example next(){
+			if( next >= numRows ){
+				throw new NoSuchElementException();
+			}
+			
+			example.moveTo(order == null ? next : order[next]);
+			next++;
+			return example;
+		}
+		
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * A read-only example that reads its features from the mapped file and can be
+	 * moved from row to row.
+	 */
+	private class MappedExample extends Example{
+		private int start; // the position of the row's first entry
+		private int numFeatures;
+		private double label;
+		private double weight;
+		
+		public MappedExample(){
+			super(null, null, 0, 0, 0.0);
+		}
+		
+		/**
+		 * Make this example a view of row
+		 * 
+		 * @param row
+		 */
+		public void moveTo(int row){
+			start = MappedDataSet.getInt(rowOffsets, row);
+			numFeatures = MappedDataSet.getInt(rowOffsets, row+1) - start;
+			label = getDouble(labels, row);
+			weight = weights == null ? 1.0 : getDouble(weights, row);
+		}
+		
+		@Override
+		public int getFeatureCount(){
+			return numFeatures;
+		}
+		
+		@Override
+		public int getFeatureIndexAt(int i){
+			return MappedDataSet.getInt(columns, start+i);
+		}
+		
+		@Override
+		public double getFeatureValueAt(int i){
+			return getDouble(values, start+i);
+		}
+		
+		@Override
+		public double getLabel(){
+			return label;
+		}
+		
+		@Override
+		public double getWeight(){
+			return weight;
+		}
+		
+		@Override
+		int find(int featureNum){
+			int low = 0;
+			int high = numFeatures-1;
+			
+			while( low <= high ){
+				int mid = (low + high) >>> 1;
+				int index = getFeatureIndexAt(mid);
+				
+				if( index < featureNum ){
+					low = mid+1;
+				}else if( index > featureNum ){
+					high = mid-1;
+				}else{
+					return mid;
+				}
+			}
+			
+			return -(low+1);
+		}
+		
+		@Override
+		public void addFeature(int featureNum, double value){
+			throw new UnsupportedOperationException("Mapped examples are read-only");
+		}
+		
+		@Override
+		public void setLabel(double label){
+			throw new UnsupportedOperationException("Mapped examples are read-only");
+		}
+		
+		@Override
+		public void setWeight(double weight){
+			throw new UnsupportedOperationException("Mapped examples are read-only");
+		}
+		
+		@Override
+		void trimToSize(){
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package ml.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the examples of a CSV file in parallel.  The data portion of the file
+ * is split into byte ranges that start and end on line boundaries, each range
+ * is parsed with a FastCSVDataReader on a ForkJoinPool and the examples are
+ * put back together in the order they appear in the file.
+ * 
+ * @author dkauchak
+ */
+public class ParallelCSVLoader {
+	// use a few more ranges than threads so that uneven ranges balance out
+	private static final int RANGES_PER_THREAD = 4;
+	
+	private Path file;
+	private long dataStart;
+	private int labelIndex;
+	private int numThreads;
+	
+	/**
+	 * @param filename the CSV file
+	 * @param dataStart the byte offset where the examples start (i.e. after any header)
+	 * @param labelIndex the index where the label of the data is at
+	 * @param numThreads the number of threads to parse with
+	 */
+	public ParallelCSVLoader(String filename, long dataStart, int labelIndex, int numThreads){
+		this.file = Paths.get(filename);
+		this.dataStart = dataStart;
+		this.labelIndex = labelIndex;
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Read all of the examples in the file
+	 * 
+	 * @return the examples, in file order
+	 * @throws IOException
+	 */
+	public ArrayList<Example> load() throws IOException{
+		long[] boundaries = FileRanges.split(file, dataStart, numThreads*RANGES_PER_THREAD);
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		
+		try{
+			List<Callable<ArrayList<Example>>> tasks = new ArrayList<Callable<ArrayList<Example>>>();
+			
+			for( int i = 0; i < boundaries.length-1; i++ ){
+				final long start = boundaries[i];
+				final long end = boundaries[i+1];
+				
+				tasks.add(new Callable<ArrayList<Example>>(){
+					public ArrayList<Example> call() throws IOException{
+						return loadRange(start, end);
+					}
+				});
+			}
+			
+			ArrayList<Example> data = new ArrayList<Example>();
+			
+			// the futures are in range order, so this keeps the file order
+			for( Future<ArrayList<Example>> result: pool.invokeAll(tasks) ){
+				data.addAll(result.get());
+			}
+			
+			return data;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + file, e);
+		}catch(ExecutionException e){
+			if( e.getCause() instanceof IOException ){
+				throw (IOException)e.getCause();
+			}else{
+				throw new RuntimeException(e.getCause());
+			}
+		}finally{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Parse the examples in the bytes between start and end
+	 * 
+	 * @param start the first byte, at the beginning of a line
+	 * @param end the byte after the last line
+	 * @return the examples in the range
+	 * @throws IOException
+	 */
+	private ArrayList<Example> loadRange(long start, long end) throws IOException{
+		ArrayList<Example> examples = new ArrayList<Example>();
+		
+		try( FileChannel in = FileChannel.open(file) ){
+			in.position(start);
+			FastCSVDataReader reader = new FastCSVDataReader(in, labelIndex, end-start);
+			
+			while( reader.hasNext() ){
+				Example next = reader.next();
+				next.trimToSize();
+				examples.add(next);
+			}
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}
+		
+		return examples;
+	}
+}
@@ -0,0 +1,215 @@
+package ml.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a text file (in the format read by TextDataReader) with multiple threads.
+ * The file is split into shards of lines which are tokenized in parallel against
+ * a shared StripedVocabulary.  Afterwards the vocabulary ids are remapped so that
+ * each word gets the feature index it would get from TextDataReader, i.e. the
+ * examples and the feature map are the same as when reading sequentially.
+ * 
+ * @author dkauchak
+ */
+public class ParallelTextLoader {
+	// use a few more shards than threads so that uneven shards balance out
+	private static final int SHARDS_PER_THREAD = 4;
+	
+	private Path file;
+	private int numThreads;
+	private String[] featureNames;
+	
+	/**
+	 * @param filename the text file containing the examples
+	 * @param numThreads the number of threads to tokenize with
+	 */
+	public ParallelTextLoader(String filename, int numThreads){
+		this.file = Paths.get(filename);
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Read all of the examples in the file
+	 * 
+	 * @return the examples, in file order
+	 * @throws IOException
+	 */
+	public ArrayList<Example> load() throws IOException{
+		final StripedVocabulary vocabulary = new StripedVocabulary(numThreads*16);
+		long[] boundaries = FileRanges.split(file, 0, numThreads*SHARDS_PER_THREAD);
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		List<Future<ArrayList<TokenizedLine>>> shards;
+		
+		try{
+			List<Callable<ArrayList<TokenizedLine>>> tasks = new ArrayList<Callable<ArrayList<TokenizedLine>>>();
+			
+			for( int i = 0; i < boundaries.length-1; i++ ){
+				final long start = boundaries[i];
+				final long end = boundaries[i+1];
+				
+				tasks.add(new Callable<ArrayList<TokenizedLine>>(){
+					public ArrayList<TokenizedLine> call() throws IOException{
+						return tokenizeShard(start, end, vocabulary);
+					}
+				});
+			}
+			
+			shards = pool.invokeAll(tasks);
+		}finally{
+			pool.shutdown();
+		}
+		
+		// the shards are in file order, so giving out feature indices to the new
+		// words of each line in turn (in the same order within the line) here
+		// reproduces the indices of the sequential reader
+		String[] words = vocabulary.getWords();
+		int[] featureIndex = new int[words.length];
+		Arrays.fill(featureIndex, -1);
+		featureNames = new String[words.length];
+		int currentFeature = 0;
+		
+		ArrayList<Example> data = new ArrayList<Example>();
+		String[] lineWords = new String[64];
+		
+		for( Future<ArrayList<TokenizedLine>> shard: shards ){
+			for( TokenizedLine line: getShard(shard) ){
+				Example example = new Example(line.wordIds.length);
+				example.setLabel(line.label);
+				
+				int numWords = line.wordIds.length;
+				boolean newWords = false;
+				
+				for( int i = 0; i < numWords && !newWords; i++ ){
+					newWords = featureIndex[line.wordIds[i]] == -1;
+				}
+				
+				if( newWords ){
+					if( lineWords.length < numWords ){
+						lineWords = new String[Math.max(numWords, lineWords.length*2)];
+					}
+					
+					for( int i = 0; i < numWords; i++ ){
+						lineWords[i] = words[line.wordIds[i]];
+					}
+					
+					for( int i: WordCounts.hashMapOrder(lineWords, numWords) ){
+						int id = line.wordIds[i];
+						
+						if( featureIndex[id] == -1 ){
+							featureIndex[id] = currentFeature;
+							featureNames[currentFeature] = words[id];
+							currentFeature++;
+						}
+					}
+				}
+				
+				for( int i = 0; i < numWords; i++ ){
+					example.addFeature(featureIndex[line.wordIds[i]], line.counts[i]);
+				}
+				
+				data.add(example);
+			}
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Get the feature mapping (i.e. association from feature index to word) for
+	 * the examples read.  Should only be called after load.
+	 * 
+	 * @return feature map
+	 */
+	public FeatureNames getFeatureMap(){
+		return new FeatureNames(featureNames);
+	}
+	
+	/**
+	 * Tokenize the lines between start and end
+	 * 
+	 * @param start the first byte, at the beginning of a line
+	 * @param end the byte after the last line
+	 * @param vocabulary the shared vocabulary to look the words up in
+	 * @return the tokenized lines
+	 * @throws IOException
+	 */
+	private ArrayList<TokenizedLine> tokenizeShard(long start, long end, StripedVocabulary vocabulary) throws IOException{
+		ArrayList<TokenizedLine> lines = new ArrayList<TokenizedLine>();
+		
+		try( BufferedReader in = new BufferedReader(new InputStreamReader(FileRanges.open(file, start, end), Charset.defaultCharset())) ){
+			String line;
+			
+			WordTokenizer tokenizer = new WordTokenizer();
+			WordCounts lineCounts = new WordCounts();
+			
+			while( (line = in.readLine()) != null ){
+				double label = tokenizer.start(line);
+				
+				while( tokenizer.nextWord() ){
+					lineCounts.increment(vocabulary.getId(tokenizer.word(), tokenizer.length(), tokenizer.hash()));
+				}
+				
+				// keep the order of first occurrence since new features are assigned in
+				// the order the words would be put into a HashMap
+				int[] wordIds = new int[lineCounts.size()];
+				double[] counts = new double[lineCounts.size()];
+				
+				for( int i = 0; i < lineCounts.size(); i++ ){
+					wordIds[i] = lineCounts.id(i);
+					counts[i] = lineCounts.count(i);
+				}
+				
+				lineCounts.clear();
+				lines.add(new TokenizedLine(label, wordIds, counts));
+			}
+		}
+		
+		return lines;
+	}
+	
+	/**
+	 * Get the result of a shard, passing on any exception
+	 */
+	private static ArrayList<TokenizedLine> getShard(Future<ArrayList<TokenizedLine>> shard) throws IOException{
+		try{
+			return shard.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch(ExecutionException e){
+			if( e.getCause() instanceof IOException ){
+				throw (IOException)e.getCause();
+			}else{
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * A line that has been tokenized, but whose words haven't been given their
+	 * final feature indices yet.
+	 */
+	private static class TokenizedLine{
+		public double label;
+		public int[] wordIds;
+		public double[] counts;
+		
+		public TokenizedLine(double label, int[] wordIds, double[] counts){
+			this.label = label;
+			this.wordIds = wordIds;
+			this.counts = counts;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package ml.data;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * An ExampleSource that reads the examples of another source on a separate thread,
+ * so that parsing the examples overlaps with whatever is consuming them (e.g. an
+ * online classifier training from the source).
+ * 
+ * The reading thread hands the examples over in batches through a bounded queue:
+ * if the consumer falls behind, the reader waits once the queue is full, so at
+ * most about capacity examples are held in memory.  Anything thrown while reading
+ * is passed on and thrown from the consumer's hasNext/next.
+ * 
+ * @author dkauchak
+ */
+public class PrefetchingExampleSource implements ExampleSource {
+	private static final int BATCH_SIZE = 256;
+	
+	// marks the end of the examples in the queue
+	private static final Example[] END = new Example[0];
+	
+	private ExampleSource source;
+	private int numBatches; // the capacity of the queue, in batches
+	
+	private Thread reader = null; // the thread reading the current pass
+	
+	/**
+	 * @param source the source to read from
+	 * @param capacity roughly how many examples to read ahead of the consumer
+	 */
+	public PrefetchingExampleSource(ExampleSource source, int capacity){
+		this.source = source;
+		this.numBatches = Math.max(1, capacity/BATCH_SIZE);
+	}
+	
+	@Override
+	public Iterator<Example> open() throws IOException {
+		stopReader();
+		
+		final Iterator<Example> examples = source.open();
+		final Prefetcher prefetcher = new Prefetcher(numBatches);
+		
+		reader = new Thread(new Runnable(){
+			public void run(){
+				prefetcher.read(examples);
+			}
+		}, "example-prefetcher");
+		reader.setDaemon(true);
+		reader.start();
+		
+		return prefetcher;
+	}
+	
+	/**
+	 * Stop the thread reading the previous pass (if it's still going), e.g. if the
+	 * consumer didn't read all of its examples
+	 */
+	private void stopReader() throws IOException{
+		if( reader != null ){
+			reader.interrupt();
+			
+			try{
+				reader.join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			
+			reader = null;
+		}
+	}
+	
+	/**
+	 * The queue between the reading thread and the consumer.  The reading thread
+	 * calls read and the consumer iterates.
+	 */
+	private static class Prefetcher implements Iterator<Example>{
+		private ArrayBlockingQueue<Example[]> queue;
+		private volatile Throwable error = null; // set before END is queued
+		
+		// the batch the consumer is currently on
+		private Example[] batch = null;
+		private int position = 0;
+		
+		public Prefetcher(int numBatches){
+			queue = new ArrayBlockingQueue<Example[]>(numBatches);
+		}
+		
+		/**
+		 * Read all of the examples into the queue, followed by END
+		 * 
+		 * @param examples
+		 */
+		public void read(Iterator<Example> examples){
+			try{
+				try{
+					Example[] next = new Example[BATCH_SIZE];
+					int size = 0;
+					
+					while( examples.hasNext() ){
+						next[size++] = examples.next();
+						
+						if( size == BATCH_SIZE ){
+							queue.put(next);
+							next = new Example[BATCH_SIZE];
+							size = 0;
+						}
+					}
+					
+					if( size > 0 ){
+						Example[] last = new Example[size];
+						System.arraycopy(next, 0, last, 0, size);
+						queue.put(last);
+					}
+				}catch(InterruptedException e){
+					// the consumer has moved on, so nobody is waiting for the rest
+					return;
+				}catch(Throwable t){
+					// being stopped while blocked reading a channel closes it
+					// (ClosedByInterruptException), which is also just a stop
+					if( Thread.currentThread().isInterrupted() ){
+						return;
+					}
+					
+					error = t;
+				}
+				
+				queue.put(END);
+			}catch(InterruptedException e){
+				// stopped
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if( batch == null || position == batch.length ){
+				if( batch == END ){
+					return false;
+				}
+				
+				try{
+					batch = queue.take();
+					position = 0;
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for examples", e);
+				}
+				
+				if( batch == END ){
+					if( error instanceof Error ){
+						throw (Error)error;
+					}else if( error != null ){
+						throw new RuntimeException("Error reading examples", error);
+					}
+					
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public Example next() {
+			if( !hasNext() ){
+				throw new NoSuchElementException();
+			}
+			
+			return batch[position++];
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
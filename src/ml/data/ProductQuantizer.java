@@ -0,0 +1,289 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import ml.utils.BoundedHeap;
+
+/**
+ * A compressed copy of some of the examples of a data set for approximate nearest
+ * neighbor search (product quantization).  The features are split into
+ * numSubspaces groups of consecutive features, k-means learns a codebook of up to
+ * 256 centroids for each group from a sample of the examples, and each example is
+ * stored as the byte code of the closest centroid in each group, i.e. numSubspaces
+ * bytes per example instead of its features.
+ * 
+ * The squared Euclidean distance from a query to an example is approximated by
+ * the distance to its centroids (asymmetric distance computation): a table of the
+ * distances from the query to every centroid is computed once per query, after
+ * which each example only costs numSubspaces table lookups.  The codes are stored
+ * by group and looked up a block of examples at a time, so a search reads them
+ * in order.  For cosine distance the examples and queries are normalized to unit
+ * length first.
+ * 
+ * The quantizer doesn't change after it's built, so any number of threads can
+ * search it at once (each with its own working space and BoundedHeap).
+ * 
+ * @author dkauchak
+ */
+public class ProductQuantizer {
+	private static final int NUM_CENTROIDS = 256;
+	private static final int SAMPLE_SIZE = 10000; // the most examples k-means is run on
+	private static final int ITERATIONS = 10;
+	private static final int BLOCK_SIZE = 1024; // the rows whose distances are added up together
+	
+	private int numDimensions;
+	private int numSubspaces;
+	private int numCentroids;
+	private boolean normalize;
+	private int[] subspaceStart; // subspace m is dimensions subspaceStart[m] to subspaceStart[m+1]
+	
+	private double[][] codebooks; // for each subspace, numCentroids centroids of its dimensions
+	private int[] rows; // the data set row of each code
+	private byte[][] codes; // for each subspace, the code of each row
+	
+	/**
+	 * Learn the codebooks and encode the rows
+	 * 
+	 * @param data
+	 * @param rows the rows of data to encode
+	 * @param numSubspaces the number of groups of features, i.e. bytes per row
+	 * @param normalize whether to normalize the rows (and queries) to unit length, for cosine distance
+	 * @param seed for sampling the rows and initializing k-means
+	 */
+	public ProductQuantizer(DataSet data, int[] rows, int numSubspaces, boolean normalize, long seed){
+		this.rows = rows.clone();
+		this.normalize = normalize;
+		
+		numDimensions = data.getNumFeatures();
+		
+		for( int row: rows ){
+			Example e = data.get(row);
+			
+			if( e.getFeatureCount() > 0 ){
+				numDimensions = Math.max(numDimensions, e.getFeatureIndexAt(e.getFeatureCount()-1)+1);
+			}
+		}
+		
+		this.numSubspaces = Math.max(1, Math.min(numSubspaces, numDimensions));
+		subspaceStart = new int[this.numSubspaces+1];
+		
+		for( int m = 0; m <= this.numSubspaces; m++ ){
+			subspaceStart[m] = (int)((long)m*numDimensions/this.numSubspaces);
+		}
+		
+		// learn the codebooks from a sample of the rows
+		Random random = new Random(seed);
+		int sampleSize = Math.min(rows.length, SAMPLE_SIZE);
+		double[][] sample = new double[sampleSize][];
+		
+		for( int i = 0; i < sampleSize; i++ ){
+			int row = sampleSize == rows.length ? rows[i] : rows[random.nextInt(rows.length)];
+			sample[i] = new double[numDimensions];
+			densify(data.get(row), sample[i]);
+		}
+		
+		numCentroids = Math.max(1, Math.min(NUM_CENTROIDS, sampleSize));
+		codebooks = new double[this.numSubspaces][];
+		
+		for( int m = 0; m < this.numSubspaces; m++ ){
+			codebooks[m] = kMeans(sample, m, random);
+		}
+		
+		// encode all of the rows
+		codes = new byte[this.numSubspaces][rows.length];
+		double[] point = new double[numDimensions];
+		
+		for( int i = 0; i < rows.length; i++ ){
+			densify(data.get(rows[i]), point);
+			
+			for( int m = 0; m < this.numSubspaces; m++ ){
+				codes[m][i] = (byte)closestCentroid(point, m);
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of rows encoded
+	 */
+	public int size(){
+		return rows.length;
+	}
+	
+	/**
+	 * @return the size of the working space needed by search
+	 */
+	public int getWorkspaceSize(){
+		return numSubspaces*numCentroids + numDimensions + BLOCK_SIZE;
+	}
+	
+	/**
+	 * Offer every row to candidates with its approximate squared Euclidean distance
+	 * to query (between the unit length versions if normalizing)
+	 * 
+	 * @param query
+	 * @param workspace working space of getWorkspaceSize(), which holds the
+	 * distances from query to the centroids, query as a dense point and the
+	 * distances of a block of rows
+	 * @param candidates
+	 */
+	public void search(Example query, double[] workspace, BoundedHeap candidates){
+		int tableSize = numSubspaces*numCentroids;
+		int pointStart = tableSize;
+		int distancesStart = pointStart + numDimensions;
+		
+		densify(query, workspace, pointStart);
+		
+		for( int m = 0; m < numSubspaces; m++ ){
+			for( int c = 0; c < numCentroids; c++ ){
+				workspace[m*numCentroids + c] = subspaceDistance(workspace, pointStart, m, c);
+			}
+		}
+		
+		// add up the distances a block of rows at a time, one subspace after another
+		for( int start = 0; start < rows.length; start += BLOCK_SIZE ){
+			int end = Math.min(start + BLOCK_SIZE, rows.length);
+			int offset = distancesStart - start; // where the distance of row i is in workspace
+			Arrays.fill(workspace, distancesStart, distancesStart + end - start, 0.0);
+			
+			for( int m = 0; m < numSubspaces; m++ ){
+				byte[] subspaceCodes = codes[m];
+				int tableOffset = m*numCentroids;
+				
+				for( int i = start; i < end; i++ ){
+					workspace[offset + i] += workspace[tableOffset + (subspaceCodes[i] & 0xFF)];
+				}
+			}
+			
+			for( int i = start; i < end; i++ ){
+				candidates.offer(workspace[offset + i], rows[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Copy the features of e that are within the dimensions into point
+	 */
+	private void densify(Example e, double[] point){
+		densify(e, point, 0);
+	}
+	
+	/**
+	 * Copy the features of e that are within the dimensions into point, starting
+	 * at start
+	 */
+	private void densify(Example e, double[] point, int start){
+		Arrays.fill(point, start, start + numDimensions, 0.0);
+		double scale = 1.0;
+		
+		if( normalize ){
+			double norm = e.squaredNorm();
+			scale = norm > 0 ? 1.0/Math.sqrt(norm) : 1.0;
+		}
+		
+		for( int i = 0; i < e.getFeatureCount(); i++ ){
+			int feature = e.getFeatureIndexAt(i);
+			
+			if( feature < numDimensions ){
+				point[start + feature] = e.getFeatureValueAt(i)*scale;
+			}
+		}
+	}
+	
+	/**
+	 * Learn the centroids of subspace m from the sample with k-means (Lloyd's
+	 * algorithm), starting from randomly chosen sample points
+	 * 
+	 * @return the centroids, one after another
+	 */
+	private double[] kMeans(double[][] sample, int m, Random random){
+		int start = subspaceStart[m];
+		int width = subspaceStart[m+1] - start;
+		double[] centroids = new double[numCentroids*width];
+		
+		if( sample.length == 0 ){
+			return centroids;
+		}
+		
+		for( int c = 0; c < numCentroids; c++ ){
+			System.arraycopy(sample[random.nextInt(sample.length)], start, centroids, c*width, width);
+		}
+		
+		double[] sums = new double[numCentroids*width];
+		int[] counts = new int[numCentroids];
+		
+		for( int iteration = 0; iteration < ITERATIONS; iteration++ ){
+			Arrays.fill(sums, 0.0);
+			Arrays.fill(counts, 0);
+			
+			for( int i = 0; i < sample.length; i++ ){
+				int closest = closest(sample[i], start, width, centroids);
+				counts[closest]++;
+				
+				for( int j = 0; j < width; j++ ){
+					sums[closest*width + j] += sample[i][start + j];
+				}
+			}
+			
+			for( int c = 0; c < numCentroids; c++ ){
+				if( counts[c] == 0 ){
+					// move empty clusters to a random point
+					System.arraycopy(sample[random.nextInt(sample.length)], start, centroids, c*width, width);
+				}else{
+					for( int j = 0; j < width; j++ ){
+						centroids[c*width + j] = sums[c*width + j]/counts[c];
+					}
+				}
+			}
+		}
+		
+		return centroids;
+	}
+	
+	/**
+	 * @return the centroid of subspace m closest to point
+	 */
+	private int closestCentroid(double[] point, int m){
+		int start = subspaceStart[m];
+		return closest(point, start, subspaceStart[m+1] - start, codebooks[m]);
+	}
+	
+	private int closest(double[] point, int start, int width, double[] centroids){
+		int best = 0;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		
+		for( int c = 0; c < numCentroids; c++ ){
+			double distance = 0.0;
+			
+			for( int j = 0; j < width; j++ ){
+				double diff = point[start + j] - centroids[c*width + j];
+				distance += diff*diff;
+			}
+			
+			if( distance < bestDistance ){
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * @return the squared distance between the point starting at pointStart and
+	 * centroid c in subspace m
+	 */
+	private double subspaceDistance(double[] point, int pointStart, int m, int c){
+		int start = pointStart + subspaceStart[m];
+		int width = subspaceStart[m+1] - subspaceStart[m];
+		double[] centroids = codebooks[m];
+		double distance = 0.0;
+		
+		for( int j = 0; j < width; j++ ){
+			double diff = point[start + j] - centroids[c*width + j];
+			distance += diff*diff;
+		}
+		
+		return distance;
+	}
+}
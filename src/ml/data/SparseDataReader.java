@@ -0,0 +1,169 @@
+package ml.data;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A class for reading examples from sparse (LibSVM/SVMlight) files, one example
+ * per line:
+ * 
+ * label index:value index:value ...
+ * 
+ * Features that aren't listed are 0.  This is the same format as Example.toString(),
+ * so by default the feature indices start at 0.  LibSVM files number the features
+ * from 1, in which case use an index base of 1.  Anything after a # is a comment,
+ * and SVMlight qid:n entries are ignored.
+ * 
+ * Like FastCSVDataReader, the lines are parsed directly from the bytes of the file.
+ * 
+ * @author dkauchak
+ */
+public class SparseDataReader extends ByteLineReader{
+	private int indexBase;
+	
+	private int numFeatures = 0; // one more than the largest feature index seen
+	private int maxFeatures = 1; // used to size the examples
+	
+	/**
+	 * Create a new reader to read the data from in with the feature indices
+	 * starting at 0
+	 * 
+	 * @param in
+	 */
+	public SparseDataReader(ReadableByteChannel in){
+		this(in, 0);
+	}
+	
+	/**
+	 * Create a new reader to read the data from in
+	 * 
+	 * @param in
+	 * @param indexBase the index of the first feature in the file (0, or 1 for LibSVM files)
+	 */
+	public SparseDataReader(ReadableByteChannel in, int indexBase){
+		this(in, indexBase, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a new reader that reads at most maxBytes from in.  The data read
+	 * must end at the end of a line.
+	 * 
+	 * @param in
+	 * @param indexBase the index of the first feature in the file (0, or 1 for LibSVM files)
+	 * @param maxBytes the number of bytes to read
+	 */
+	public SparseDataReader(ReadableByteChannel in, int indexBase, long maxBytes){
+		super(in, maxBytes);
+		this.indexBase = indexBase;
+	}
+	
+	/**
+	 * @return one more than the largest feature index read so far, i.e. the number
+	 * of features if the features are numbered 0 to numFeatures-1
+	 */
+	public int getNumFeatures(){
+		return numFeatures;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		// skip lines with only a comment or whitespace
+		while( super.hasNext() ){
+			if( skipSpace(lineStart, contentEnd()) < contentEnd() ){
+				return true;
+			}
+			
+			consumeLine();
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public Example next() {
+		Example data = null;
+		
+		if( hasNext() ){
+			data = new Example(maxFeatures);
+			int end = contentEnd();
+			
+			int start = skipSpace(lineStart, end);
+			int tokenEnd = tokenEnd(start, end);
+			data.setLabel(parseDouble(buffer, start, tokenEnd));
+			
+			for( start = skipSpace(tokenEnd, end); start < end; start = skipSpace(tokenEnd, end) ){
+				tokenEnd = tokenEnd(start, end);
+				
+				if( isQid(start, tokenEnd) ){
+					continue;
+				}
+				
+				int colon = start;
+				long index = 0;
+				
+				while( colon < tokenEnd && buffer[colon] >= '0' && buffer[colon] <= '9' ){
+					index = Math.min(index*10 + (buffer[colon]-'0'), Integer.MAX_VALUE);
+					colon++;
+				}
+				
+				if( colon == start || colon == tokenEnd || buffer[colon] != ':' ){
+					throw new IllegalArgumentException("Expected index:value, got " + token(start, tokenEnd));
+				}
+				
+				if( index < indexBase || index == Integer.MAX_VALUE ){
+					throw new IllegalArgumentException("Invalid feature index: " + token(start, tokenEnd));
+				}
+				
+				index -= indexBase;
+				
+				data.addFeature((int)index, parseDouble(buffer, colon+1, tokenEnd));
+				numFeatures = Math.max(numFeatures, (int)index+1);
+			}
+			
+			maxFeatures = Math.max(maxFeatures, data.getFeatureCount());
+			consumeLine();
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * @return the end of the current line, not including any comment
+	 */
+	private int contentEnd(){
+		for( int i = lineStart; i < lineEnd; i++ ){
+			if( buffer[i] == '#' ){
+				return i;
+			}
+		}
+		
+		return lineEnd;
+	}
+	
+	/**
+	 * @return whether the token from start to end is an SVMlight query id (qid:n)
+	 */
+	private boolean isQid(int start, int end){
+		return end-start > 4 && buffer[start] == 'q' && buffer[start+1] == 'i' &&
+				buffer[start+2] == 'd' && buffer[start+3] == ':';
+	}
+	
+	private int skipSpace(int start, int end){
+		while( start < end && (buffer[start] == ' ' || buffer[start] == '\t') ){
+			start++;
+		}
+		
+		return start;
+	}
+	
+	private int tokenEnd(int start, int end){
+		while( start < end && buffer[start] != ' ' && buffer[start] != '\t' ){
+			start++;
+		}
+		
+		return start;
+	}
+	
+	private String token(int start, int end){
+		return new String(buffer, start, end-start);
+	}
+}
@@ -0,0 +1,105 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe mapping from words to ids.  The words are spread over a number
+ * of independently locked stripes so that threads adding different words rarely
+ * wait on each other.
+ * 
+ * The ids are handed out in the order the words are first added, which depends on
+ * thread scheduling, so callers that need deterministic ids should remap them.
+ * 
+ * @author dkauchak
+ */
+public class StripedVocabulary {
+	private Stripe[] stripes;
+	private AtomicInteger nextId = new AtomicInteger(0);
+	
+	/**
+	 * @param numStripes the number of stripes (rounded up to a power of 2)
+	 */
+	public StripedVocabulary(int numStripes){
+		int size = Integer.highestOneBit(Math.max(1, numStripes-1)) << 1;
+		stripes = new Stripe[size];
+		
+		for( int i = 0; i < size; i++ ){
+			stripes[i] = new Stripe();
+		}
+	}
+	
+	/**
+	 * Get the id for word, giving it a new id if it hasn't been seen before
+	 * 
+	 * @param word
+	 * @return the id of word
+	 */
+	public int getId(String word){
+		return getId(word.toCharArray(), word.length(), word.hashCode());
+	}
+	
+	/**
+	 * Get the id for a word held in a char buffer, giving it a new id if it
+	 * hasn't been seen before
+	 * 
+	 * @param chars buffer holding the word
+	 * @param length the length of the word
+	 * @param hash the String.hashCode() of the word
+	 * @return the id of the word
+	 */
+	int getId(char[] chars, int length, int hash){
+		Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (stripes.length-1)];
+		
+		synchronized(stripe){
+			int localId = stripe.words.add(chars, length, hash);
+			
+			if( localId == stripe.ids.length ){
+				stripe.ids = Arrays.copyOf(stripe.ids, localId*2);
+			}
+			
+			if( localId == stripe.size ){
+				stripe.ids[localId] = nextId.getAndIncrement();
+				stripe.size++;
+			}
+			
+			return stripe.ids[localId];
+		}
+	}
+	
+	/**
+	 * @return the number of words in the vocabulary
+	 */
+	public int size(){
+		return nextId.get();
+	}
+	
+	/**
+	 * Get the words indexed by their ids.  Should only be called once no more
+	 * words are being added.
+	 * 
+	 * @return the word for each id
+	 */
+	public String[] getWords(){
+		String[] words = new String[size()];
+		
+		for( Stripe stripe: stripes ){
+			synchronized(stripe){
+				for( int i = 0; i < stripe.size; i++ ){
+					words[stripe.ids[i]] = stripe.words.getWord(i);
+				}
+			}
+		}
+		
+		return words;
+	}
+	
+	/**
+	 * The words of one stripe along with the global id of each of them
+	 */
+	private static class Stripe{
+		public Vocabulary words = new Vocabulary();
+		public int[] ids = new int[16];
+		public int size = 0;
+	}
+}
@@ -1,14 +1,14 @@
 package ml.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 
 import ml.classifiers.DecisionTreeClassifier;
-import ml.utils.HashMapCounter;
 
 /**
  * A class for reading text examples.
@@ -16,81 +16,131 @@ import ml.utils.HashMapCounter;
  * Each example should be a single line in the file.  The line should start with a numerical
  * label and then the words of the example should follow with each word separated by whitespace.
  * 
+ * The lines are tokenized directly from the bytes of the file, in the default charset.
+ * 
  * @author dkauchak
  *
  */
-public class TextDataReader implements Iterator<Example>{
-	private String nextLine; // next line in the file
-	private BufferedReader in; // source to be reading data from
+public class TextDataReader extends ByteLineReader implements Closeable{
+	private ReadableByteChannel in; // source to be reading data from
 	
 	// keep track of the mapping of the words to their feature index
-	private HashMap<String, Integer> wordToFeature = new HashMap<String,Integer>();
-	private int currentFeature = 0;
+	private Vocabulary vocabulary = new Vocabulary();
+	private WordTokenizer tokenizer = new WordTokenizer();
+	private WordCounts lineCounts = new WordCounts();
+	private int[] lineHashes = new int[64]; // the hashes of the distinct words of a line with new words
 		
 	/**
 	 * @param textFile the text file containing the examples
+	 * @throws UncheckedIOException if the file can't be opened
+	 */
+	public TextDataReader(String textFile){
+		this(open(textFile));
+	}
+	
+	/**
+	 * Create a new reader to read the examples from in
+	 * 
+	 * @param in
 	 */
-	public TextDataReader(String textFile){		
+	public TextDataReader(ReadableByteChannel in){
+		super(in, Long.MAX_VALUE);
+		this.in = in;
+	}
+	
+	private static FileChannel open(String textFile){
 		try {
-			in = new BufferedReader(new FileReader(textFile));
-			nextLine = in.readLine();
+			return FileChannel.open(Paths.get(textFile));
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException(e);
 		}
 	}
-	
-	@Override
-	public boolean hasNext() {
-		return nextLine != null;
-	}
 
 	@Override
 	public Example next() {
 		Example data = null;
 		
 		if( hasNext() ){
-			data = new Example();
+			// parse the line, counting how many times each word occurs
+			double label = tokenizer.start(buffer, lineStart, lineEnd);
+			int numFeatures = vocabulary.size();
 			
-			// parse the line
-			String[] parts = nextLine.split("\\s+");
+			while( tokenizer.nextWord() ){
+				lineCounts.increment(vocabulary.add(tokenizer.word(), tokenizer.length(), tokenizer.hash()));
+			}
 			
-			data.setLabel(Double.parseDouble(parts[0]));
-	
-			// do a little bit of preprocessing and count how
-			// many times each word occurs
-			HashMapCounter<String> counter = new HashMapCounter<String>();
+			// the vocabulary ids are the feature indices
+			if( vocabulary.size() > numFeatures ){
+				renumberNewWords(numFeatures);
+			}
+			
+			// adding the features in increasing order saves Example from shifting them
+			data = new Example(lineCounts.size());
+			data.setLabel(label);
+			lineCounts.sort();
 			
-			for( int i = 1; i < parts.length; i++ ){
-				String w = parts[i].toLowerCase();
-				
-				// check if it has at least one alphabet character
-				if( !w.matches("[^a-z]+")){
-					counter.increment(w);
-				}
+			for( int i = 0; i < lineCounts.size(); i++ ){
+				data.addFeature(lineCounts.id(i), lineCounts.count(i));
 			}
 			
-			for( String word: counter.keySet() ){
-				if( !wordToFeature.containsKey(word) ){
-					wordToFeature.put(word, currentFeature);
-					currentFeature++;
-				}
-				
-				data.addFeature(wordToFeature.get(word), counter.get(word));
+			lineCounts.clear();
+			consumeLine();
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Give the words first added by the current line (the ids from first on)
+	 * their feature indices, which are handed out in the order of
+	 * WordCounts.hashMapOrder, and update the ids in lineCounts to match
+	 * 
+	 * @param first the first id of a new word
+	 */
+	private void renumberNewWords(int first){
+		int numWords = lineCounts.size();
+		
+		if( lineHashes.length < numWords ){
+			lineHashes = new int[Math.max(numWords, lineHashes.length*2)];
+		}
+		
+		for( int i = 0; i < numWords; i++ ){
+			lineHashes[i] = vocabulary.getHash(lineCounts.id(i));
+		}
+		
+		int[] order = WordCounts.hashMapOrder(lineHashes, numWords);
+		
+		if( order == null ){
+			String[] lineWords = new String[numWords];
+			
+			for( int i = 0; i < numWords; i++ ){
+				lineWords[i] = vocabulary.getWord(lineCounts.id(i));
 			}
 			
-			try {
-				nextLine = in.readLine();
-			} catch (IOException e) {
-				e.printStackTrace();
+			order = WordCounts.hashMapOrder(lineWords, numWords);
+		}
+		
+		int[] newIds = new int[vocabulary.size() - first];
+		int nextId = first;
+		
+		for( int i: order ){
+			int id = lineCounts.id(i);
+			
+			if( id >= first ){
+				newIds[id - first] = nextId++;
 			}
 		}
 		
-		return data;
+		vocabulary.renumber(first, newIds);
+		lineCounts.renumber(first, newIds);
 	}
 	
+	/**
+	 * Close the underlying file
+	 */
 	@Override
-	public void remove() {
-		// OPTIONAL, so we won't implement
+	public void close() throws IOException {
+		in.close();
 	}
 
 	/**
@@ -100,13 +150,7 @@ public class TextDataReader implements Iterator<Example>{
 	 * 
 	 * @return feature map
 	 */
-	public HashMap<Integer, String> getFeatureMap(){
-		HashMap<Integer, String> featureMap = new HashMap<Integer, String>();
-		
-		for( String word: wordToFeature.keySet() ){
-			featureMap.put(wordToFeature.get(word), word);
-		}
-		
-		return featureMap;
+	public FeatureNames getFeatureMap(){
+		return new FeatureNames(vocabulary.getWords());
 	}	
 }
\ No newline at end of file
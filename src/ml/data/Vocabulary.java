@@ -0,0 +1,235 @@
+package ml.data;
+
+import java.util.Arrays;
+
+/**
+ * A mapping from words to ids (0, 1, 2, ... in the order the words are added)
+ * that can be looked up directly with a char buffer, e.g. from WordTokenizer,
+ * so that no String is created to look up a word.
+ * 
+ * The characters of the words are kept one after another in a single array and
+ * each table entry holds the hash of its word as well as its id, so a lookup
+ * only touches the table and the characters of the word it matches.  The
+ * String for a word is only created when it's asked for.
+ * 
+ * @author dkauchak
+ */
+class Vocabulary {
+	private static final long EMPTY = -1;
+	
+	// open addressing table of the hash (high 32 bits) and id (low 32 bits) of
+	// each word, EMPTY if empty
+	private long[] table = new long[64];
+	private int shift = 26; // 32 - log2(table.length)
+	
+	// the characters of the words, in the order they were added
+	private char[] wordChars = new char[256];
+	private int numChars = 0;
+	
+	// for each id, where its characters start, how many there are, its hash and
+	// its String (null until asked for)
+	private int[] starts = new int[32];
+	private int[] lengths = new int[32];
+	private int[] hashes = new int[32];
+	private String[] words = new String[32];
+	private int size = 0;
+	
+	public Vocabulary(){
+		Arrays.fill(table, EMPTY);
+	}
+	
+	/**
+	 * Get the id of a word
+	 * 
+	 * @param chars buffer holding the word
+	 * @param length the length of the word
+	 * @param hash the String.hashCode() of the word
+	 * @return the id of the word, or -1 if it isn't in the vocabulary
+	 */
+	public int get(char[] chars, int length, int hash){
+		int mask = table.length-1;
+		
+		for( int slot = slot(hash); table[slot] != EMPTY; slot = (slot+1) & mask ){
+			long entry = table[slot];
+			
+			if( (int)(entry >>> 32) == hash && matches((int)entry, chars, length) ){
+				return (int)entry;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Get the id of a word, adding it to the vocabulary if it isn't there yet
+	 * 
+	 * @param chars buffer holding the word
+	 * @param length the length of the word
+	 * @param hash the String.hashCode() of the word
+	 * @return the id of the word
+	 */
+	public int add(char[] chars, int length, int hash){
+		int mask = table.length-1;
+		int slot = slot(hash);
+		
+		for( ; table[slot] != EMPTY; slot = (slot+1) & mask ){
+			long entry = table[slot];
+			
+			if( (int)(entry >>> 32) == hash && matches((int)entry, chars, length) ){
+				return (int)entry;
+			}
+		}
+		
+		if( size == starts.length ){
+			starts = Arrays.copyOf(starts, size*2);
+			lengths = Arrays.copyOf(lengths, size*2);
+			hashes = Arrays.copyOf(hashes, size*2);
+			words = Arrays.copyOf(words, size*2);
+		}
+		
+		if( numChars + length > wordChars.length ){
+			wordChars = Arrays.copyOf(wordChars, Math.max(numChars + length, wordChars.length*2));
+		}
+		
+		int id = size++;
+		System.arraycopy(chars, 0, wordChars, numChars, length);
+		starts[id] = numChars;
+		lengths[id] = length;
+		hashes[id] = hash;
+		numChars += length;
+		table[slot] = entry(hash, id);
+		
+		// keep the table at most half full
+		if( size*2 > table.length ){
+			rehash();
+		}
+		
+		return id;
+	}
+	
+	/**
+	 * Change the ids of the words with ids first to size()-1
+	 * 
+	 * @param first
+	 * @param newIds the new id of each of the words, a permutation of first to size()-1
+	 */
+	public void renumber(int first, int[] newIds){
+		int numWords = size - first;
+		int mask = table.length-1;
+		int[] slots = new int[numWords];
+		
+		for( int i = 0; i < numWords; i++ ){
+			int slot = slot(hashes[first + i]);
+			
+			while( (int)table[slot] != first + i ){
+				slot = (slot+1) & mask;
+			}
+			
+			slots[i] = slot;
+		}
+		
+		int[] oldStarts = Arrays.copyOfRange(starts, first, size);
+		int[] oldLengths = Arrays.copyOfRange(lengths, first, size);
+		int[] oldHashes = Arrays.copyOfRange(hashes, first, size);
+		String[] oldWords = Arrays.copyOfRange(words, first, size);
+		
+		for( int i = 0; i < numWords; i++ ){
+			int id = newIds[i];
+			table[slots[i]] = entry(oldHashes[i], id);
+			starts[id] = oldStarts[i];
+			lengths[id] = oldLengths[i];
+			hashes[id] = oldHashes[i];
+			words[id] = oldWords[i];
+		}
+	}
+	
+	/**
+	 * @param id
+	 * @return the word with that id
+	 */
+	public String getWord(int id){
+		if( words[id] == null ){
+			words[id] = new String(wordChars, starts[id], lengths[id]);
+		}
+		
+		return words[id];
+	}
+	
+	/**
+	 * @param id
+	 * @return the String.hashCode() of the word with that id
+	 */
+	public int getHash(int id){
+		return hashes[id];
+	}
+	
+	/**
+	 * @return the words in order of their ids
+	 */
+	public String[] getWords(){
+		String[] all = new String[size];
+		
+		for( int id = 0; id < size; id++ ){
+			all[id] = getWord(id);
+		}
+		
+		return all;
+	}
+	
+	/**
+	 * @return the number of words in the vocabulary
+	 */
+	public int size(){
+		return size;
+	}
+	
+	private void rehash(){
+		long[] oldTable = table;
+		table = new long[table.length*2];
+		shift--;
+		Arrays.fill(table, EMPTY);
+		int mask = table.length-1;
+		
+		for( long entry: oldTable ){
+			if( entry != EMPTY ){
+				int slot = slot((int)(entry >>> 32));
+				
+				while( table[slot] != EMPTY ){
+					slot = (slot+1) & mask;
+				}
+				
+				table[slot] = entry;
+			}
+		}
+	}
+	
+	/**
+	 * The slot for a hash is the top bits of the hash times 2^32/phi.  The
+	 * String.hashCode()s of short words only differ in their low bits, so using
+	 * those directly (as HashMap does) puts similar words next to each other and
+	 * the linear probing runs get long.
+	 */
+	private int slot(int hash){
+		return (hash * 0x9E3779B9) >>> shift;
+	}
+	
+	private static long entry(int hash, int id){
+		return ((long)hash << 32) | id;
+	}
+	
+	private boolean matches(int id, char[] chars, int length){
+		if( lengths[id] != length ){
+			return false;
+		}
+		
+		int start = starts[id];
+		
+		for( int i = 0; i < length; i++ ){
+			if( wordChars[start + i] != chars[i] ){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
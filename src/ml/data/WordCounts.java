@@ -0,0 +1,211 @@
+package ml.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Counts the word ids of a single line, remembering the order the ids first
+ * occurred in.  The arrays are reused from line to line.
+ * 
+ * @author dkauchak
+ */
+class WordCounts {
+	private int[] countById = new int[1024];
+	private int[] ids = new int[64]; // distinct ids in order of first occurrence
+	private int size = 0;
+	
+	/**
+	 * Count one more occurrence of id
+	 * 
+	 * @param id
+	 */
+	public void increment(int id){
+		if( id >= countById.length ){
+			countById = Arrays.copyOf(countById, Math.max(id+1, countById.length*2));
+		}
+		
+		if( countById[id] == 0 ){
+			if( size == ids.length ){
+				ids = Arrays.copyOf(ids, size*2);
+			}
+			
+			ids[size++] = id;
+		}
+		
+		countById[id]++;
+	}
+	
+	/**
+	 * @return the number of distinct ids counted
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * @param i
+	 * @return the i-th distinct id, in order of first occurrence
+	 */
+	public int id(int i){
+		return ids[i];
+	}
+	
+	/**
+	 * @param i
+	 * @return the count of the i-th distinct id
+	 */
+	public int count(int i){
+		return countById[ids[i]];
+	}
+	
+	/**
+	 * Put the distinct ids in increasing order, instead of the order they first
+	 * occurred in
+	 */
+	public void sort(){
+		Arrays.sort(ids, 0, size);
+	}
+	
+	/**
+	 * Change the ids from first on, keeping their counts
+	 * 
+	 * @param first
+	 * @param newIds the new id of each id from first on, each also at least first
+	 */
+	public void renumber(int first, int[] newIds){
+		for( int i = 0; i < size; i++ ){
+			if( ids[i] >= first ){
+				ids[i] = newIds[ids[i] - first];
+			}
+		}
+		
+		// the counts of the renumbered ids all move among the ids from first on
+		int[] counts = new int[newIds.length];
+		
+		for( int i = 0; i < newIds.length; i++ ){
+			counts[newIds[i] - first] = countById[first + i];
+		}
+		
+		System.arraycopy(counts, 0, countById, first, newIds.length);
+	}
+	
+	/**
+	 * Get the order a HashMap<String, ...> iterates its keys in when the words
+	 * are put into it in the given order, which is the order TextDataReader has
+	 * always given new words their feature indices in (from a HashMap of the words
+	 * of each line).
+	 * 
+	 * A HashMap iterates its table in order of bucket, and each bucket in the
+	 * order its words were put, so the order follows from the hashes and the
+	 * final size of the table.  That's only true while no bucket gets big enough
+	 * to be turned into a tree (or to grow the table early), so in that rare case
+	 * the words are put into a HashMap to see.
+	 * 
+	 * @param words the distinct words in the order they're put
+	 * @param n the number of words
+	 * @return the indices of the words in words, in iteration order
+	 */
+	static int[] hashMapOrder(String[] words, int n){
+		int[] hashes = new int[n];
+		
+		for( int i = 0; i < n; i++ ){
+			hashes[i] = words[i].hashCode();
+		}
+		
+		int[] order = hashMapOrder(hashes, n);
+		
+		if( order == null ){
+			HashMap<String, Integer> map = new HashMap<String, Integer>();
+			
+			for( int i = 0; i < n; i++ ){
+				map.put(words[i], i);
+			}
+			
+			order = new int[n];
+			int next = 0;
+			
+			for( int i: map.values() ){
+				order[next++] = i;
+			}
+		}
+		
+		return order;
+	}
+	
+	/**
+	 * The same as hashMapOrder(String[], int), but from just the hashCode()s of the
+	 * words, so without the rare case of a big bucket.
+	 * 
+	 * @param hashes the hashCode()s of the distinct words in the order they're put
+	 * @param n the number of words
+	 * @return the indices of the words in iteration order, or null if the order
+	 * depends on more than the hashes
+	 */
+	static int[] hashMapOrder(int[] hashes, int n){
+		// the table starts with 16 buckets and doubles once it's over 3/4 full
+		int capacity = 16;
+		
+		while( n > capacity/4*3 ){
+			capacity *= 2;
+		}
+		
+		if( hasBigBucket(hashes, n, capacity) ){
+			return null;
+		}
+		
+		// sort by bucket, then by the order put
+		long[] keys = new long[n];
+		
+		for( int i = 0; i < n; i++ ){
+			keys[i] = ((long)(spread(hashes[i]) & (capacity-1)) << 32) | i;
+		}
+		
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		
+		for( int i = 0; i < n; i++ ){
+			order[i] = (int)keys[i];
+		}
+		
+		return order;
+	}
+	
+	/**
+	 * @return whether, for any of the table sizes a HashMap goes through while
+	 * the words are put into it, a bucket gets more than 8 words, after which the
+	 * HashMap changes how it stores the bucket
+	 */
+	private static boolean hasBigBucket(int[] hashes, int n, int capacity){
+		for( int size = 16; size <= capacity; size *= 2 ){
+			// the words put while the table has this size
+			int numPut = Math.min(n, size/4*3 + 1);
+			int[] bucketSizes = new int[size];
+			
+			for( int i = 0; i < numPut; i++ ){
+				if( ++bucketSizes[spread(hashes[i]) & (size-1)] > 8 ){
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return the hash HashMap uses for the bucket of a key with hashCode hash
+	 */
+	private static int spread(int hash){
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Reset all of the counts to zero
+	 */
+	public void clear(){
+		for( int i = 0; i < size; i++ ){
+			countById[ids[i]] = 0;
+		}
+		
+		size = 0;
+	}
+}
@@ -0,0 +1,236 @@
+package ml.data;
+
+import java.nio.charset.Charset;
+
+/**
+ * Splits a line of a text example into its label and words.  The line is scanned
+ * once: words are separated by whitespace, lowercased and checked for alphabet
+ * characters as they are copied into a reusable buffer, so no String is created
+ * per word.  The words produced are exactly those of splitting on \s+, calling
+ * toLowerCase() and dropping the words without any a-z characters.
+ * 
+ * A line can also be tokenized straight from the bytes of a file, in which case only
+ * the words with non-ascii bytes are decoded (in the default charset).  That gives
+ * the same words as decoding the whole line as long as whitespace bytes are never
+ * part of another character, which holds for UTF-8 and the other ascii compatible
+ * charsets.
+ * 
+ * @author dkauchak
+ */
+class WordTokenizer {
+	// the line being tokenized, or null if it's bytes[position] to bytes[end]
+	private String line;
+	private byte[] bytes;
+	private int position;
+	private int end;
+	private Charset charset = Charset.defaultCharset();
+	
+	// the current word, lowercased, and its String.hashCode()
+	private char[] word = new char[32];
+	private int length;
+	private int hash;
+	
+	/**
+	 * Start tokenizing line.
+	 * 
+	 * @param line
+	 * @return the label of the line, i.e. the number before the first whitespace
+	 */
+	public double start(String line){
+		this.line = line;
+		position = 0;
+		
+		while( position < line.length() && !isWhitespace(line.charAt(position)) ){
+			position++;
+		}
+		
+		return Double.parseDouble(line.substring(0, position));
+	}
+	
+	/**
+	 * Start tokenizing the line in bytes[start] to bytes[end].  The bytes must not
+	 * change until the line is done.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return the label of the line, i.e. the number before the first whitespace
+	 */
+	public double start(byte[] bytes, int start, int end){
+		line = null;
+		this.bytes = bytes;
+		this.end = end;
+		position = start;
+		
+		while( position < end && !isWhitespace((char)bytes[position]) ){
+			position++;
+		}
+		
+		return ByteLineReader.parseDouble(bytes, start, position);
+	}
+	
+	/**
+	 * Move to the next word of the line
+	 * 
+	 * @return whether there was another word
+	 */
+	public boolean nextWord(){
+		if( line == null ){
+			return nextByteWord();
+		}
+		
+		int lineLength = line.length();
+		
+		while( true ){
+			while( position < lineLength && isWhitespace(line.charAt(position)) ){
+				position++;
+			}
+			
+			if( position >= lineLength ){
+				return false;
+			}
+			
+			int start = position;
+			length = 0;
+			hash = 0;
+			boolean hasLetter = false;
+			boolean ascii = true;
+			
+			while( position < lineLength ){
+				char c = line.charAt(position);
+				
+				if( isWhitespace(c) ){
+					break;
+				}
+				
+				if( c >= 'A' && c <= 'Z' ){
+					c += 'a'-'A';
+				}else if( c > 127 ){
+					ascii = false;
+				}
+				
+				hasLetter |= c >= 'a' && c <= 'z';
+				append(c);
+				position++;
+			}
+			
+			if( !ascii ){
+				hasLetter = setLowerCase(line.substring(start, position));
+			}
+			
+			if( hasLetter ){
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * nextWord for a line of bytes.  Ascii words are lowercased as they're copied
+	 * and any others are decoded.
+	 */
+	private boolean nextByteWord(){
+		while( true ){
+			while( position < end && isWhitespace((char)bytes[position]) ){
+				position++;
+			}
+			
+			if( position >= end ){
+				return false;
+			}
+			
+			int start = position;
+			length = 0;
+			hash = 0;
+			boolean hasLetter = false;
+			boolean ascii = true;
+			
+			while( position < end ){
+				byte b = bytes[position];
+				
+				if( isWhitespace((char)b) ){
+					break;
+				}
+				
+				if( b >= 'A' && b <= 'Z' ){
+					b += 'a'-'A';
+				}else if( b < 0 ){
+					ascii = false;
+				}
+				
+				hasLetter |= b >= 'a' && b <= 'z';
+				append((char)b);
+				position++;
+			}
+			
+			if( !ascii ){
+				hasLetter = setLowerCase(new String(bytes, start, position-start, charset));
+			}
+			
+			if( hasLetter ){
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Make w, lowercased, the current word.  Lowercasing non-ascii characters can
+	 * depend on context and even change the length, so it's left to toLowerCase.
+	 * 
+	 * @param w
+	 * @return whether the word has any a-z characters
+	 */
+	private boolean setLowerCase(String w){
+		w = w.toLowerCase();
+		length = 0;
+		hash = 0;
+		boolean hasLetter = false;
+		
+		for( int i = 0; i < w.length(); i++ ){
+			char c = w.charAt(i);
+			hasLetter |= c >= 'a' && c <= 'z';
+			append(c);
+		}
+		
+		return hasLetter;
+	}
+	
+	/**
+	 * @return the buffer holding the current word in positions 0 to length()-1
+	 */
+	public char[] word(){
+		return word;
+	}
+	
+	/**
+	 * @return the length of the current word
+	 */
+	public int length(){
+		return length;
+	}
+	
+	/**
+	 * @return the hash of the current word, the same as String.hashCode()
+	 */
+	public int hash(){
+		return hash;
+	}
+	
+	private void append(char c){
+		if( length == word.length ){
+			char[] bigger = new char[word.length*2];
+			System.arraycopy(word, 0, bigger, 0, length);
+			word = bigger;
+		}
+		
+		word[length++] = c;
+		hash = 31*hash + c;
+	}
+	
+	/**
+	 * @return whether c is a whitespace character as matched by \s
+	 */
+	private static boolean isWhitespace(char c){
+		// i.e. ' ' or \t, \n, \u000B, \f, \r
+		return c <= ' ' && (c == ' ' || (c >= '\t' && c <= '\r'));
+	}
+}
@@ -0,0 +1,172 @@
+package ml.utils;
+
+/**
+ * Keeps the capacity smallest (distance, id) pairs offered, e.g. the k nearest
+ * neighbors of a query, in primitive arrays so that it can be reused for query
+ * after query without allocating.  Pairs with the same distance are ordered by
+ * id, so the result is the same as sorting all of the pairs and taking the first
+ * capacity.
+ * 
+ * Internally this is a max-heap with the farthest pair kept at the top, so each
+ * offer is O(log capacity).  After sort() the pairs can be read in order from
+ * closest to farthest with getDistance(i) and getId(i), but nothing more can be
+ * offered until the heap is cleared.
+ * 
+ * @author dkauchak
+ */
+public class BoundedHeap {
+	private double[] distances;
+	private int[] ids;
+	private int size = 0;
+	
+	/**
+	 * @param capacity the number of pairs to keep
+	 */
+	public BoundedHeap(int capacity){
+		distances = new double[capacity];
+		ids = new int[capacity];
+	}
+	
+	/**
+	 * Remove all of the pairs
+	 */
+	public void clear(){
+		size = 0;
+	}
+	
+	/**
+	 * @return the number of pairs kept
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * @return the number of pairs that can be kept
+	 */
+	public int capacity(){
+		return distances.length;
+	}
+	
+	/**
+	 * @return whether the heap holds capacity pairs
+	 */
+	public boolean isFull(){
+		return size == distances.length;
+	}
+	
+	/**
+	 * @return the largest distance kept, or infinity if the heap isn't full yet,
+	 * i.e. any pair with a smaller distance would be kept
+	 */
+	public double maxDistance(){
+		return isFull() && size > 0 ? distances[0] : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Add a pair if it's one of the capacity smallest so far
+	 * 
+	 * @param distance
+	 * @param id
+	 * @return whether the pair was kept
+	 */
+	public boolean offer(double distance, int id){
+		if( size < distances.length ){
+			// add it at the bottom and move it up
+			int i = size++;
+			
+			while( i > 0 ){
+				int parent = (i-1) >>> 1;
+				
+				if( !greater(distance, id, distances[parent], ids[parent]) ){
+					break;
+				}
+				
+				distances[i] = distances[parent];
+				ids[i] = ids[parent];
+				i = parent;
+			}
+			
+			distances[i] = distance;
+			ids[i] = id;
+			return true;
+		}
+		
+		if( size == 0 || !greater(distances[0], ids[0], distance, id) ){
+			return false;
+		}
+		
+		// replace the farthest pair
+		siftDown(distance, id, size);
+		return true;
+	}
+	
+	/**
+	 * Sort the pairs from closest to farthest (a heap sort, in place)
+	 */
+	public void sort(){
+		for( int end = size-1; end > 0; end-- ){
+			double distance = distances[end];
+			int id = ids[end];
+			
+			distances[end] = distances[0];
+			ids[end] = ids[0];
+			siftDown(distance, id, end);
+		}
+	}
+	
+	/**
+	 * @param i
+	 * @return the distance of the i-th pair
+	 */
+	public double getDistance(int i){
+		return distances[i];
+	}
+	
+	/**
+	 * @param i
+	 * @return the id of the i-th pair
+	 */
+	public int getId(int i){
+		return ids[i];
+	}
+	
+	/**
+	 * Put (distance, id) at the top of the first end pairs and move it down
+	 * to its place
+	 */
+	private void siftDown(double distance, int id, int end){
+		int i = 0;
+		
+		while( true ){
+			int child = 2*i + 1;
+			
+			if( child >= end ){
+				break;
+			}
+			
+			if( child+1 < end && greater(distances[child+1], ids[child+1], distances[child], ids[child]) ){
+				child++;
+			}
+			
+			if( !greater(distances[child], ids[child], distance, id) ){
+				break;
+			}
+			
+			distances[i] = distances[child];
+			ids[i] = ids[child];
+			i = child;
+		}
+		
+		distances[i] = distance;
+		ids[i] = id;
+	}
+	
+	/**
+	 * @return whether (distance1, id1) comes after (distance2, id2)
+	 */
+	private static boolean greater(double distance1, int id1, double distance2, int id2){
+		int compare = Double.compare(distance1, distance2);
+		return compare > 0 || (compare == 0 && id1 > id2);
+	}
+}
@@ -0,0 +1,57 @@
+package ml.utils;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The set of integers 0 to size-1, without storing them.
+ * 
+ * @author dkauchak
+ */
+public class IndexRange extends AbstractSet<Integer> {
+	private int size;
+	
+	/**
+	 * @param size the number of indices in the range
+	 */
+	public IndexRange(int size){
+		this.size = size;
+	}
+	
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<Integer>(){
+			private int next = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+			
+			@Override
+			public Integer next() {
+				if( next >= size ){
+					throw new NoSuchElementException();
+				}
+				
+				return next++;
+			}
+		};
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean contains(Object o){
+		if( !(o instanceof Integer) ){
+			return false;
+		}
+		
+		int i = (Integer)o;
+		return i >= 0 && i < size;
+	}
+}
@@ -0,0 +1,90 @@
+package ml.utils;
+
+/**
+ * MurmurHash3 (32 bit, x86 variant).  A fast non-cryptographic hash with good
+ * distribution, used for hashing features into a fixed size feature space.
+ * 
+ * @author dkauchak
+ */
+public class MurmurHash {
+	private static final int C1 = 0xcc9e2d51;
+	private static final int C2 = 0x1b873593;
+	
+	/**
+	 * Hash the characters chars[offset] to chars[offset+length-1]
+	 * 
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @param seed
+	 * @return the hash
+	 */
+	public static int hash(char[] chars, int offset, int length, int seed){
+		int h = seed;
+		int end = offset + length;
+		int i = offset;
+		
+		// two 16 bit chars at a time
+		for( ; i+1 < end; i += 2 ){
+			h = mixH(h, mixK(chars[i] | (chars[i+1] << 16)));
+		}
+		
+		if( i < end ){
+			h ^= mixK(chars[i]);
+		}
+		
+		return fmix(h ^ (length*2));
+	}
+	
+	/**
+	 * Hash the ints values[offset] to values[offset+length-1], e.g. to combine
+	 * the hashes of the words in an n-gram
+	 * 
+	 * @param values
+	 * @param offset
+	 * @param length
+	 * @param seed
+	 * @return the hash
+	 */
+	public static int hash(int[] values, int offset, int length, int seed){
+		int h = seed;
+		
+		for( int i = offset; i < offset+length; i++ ){
+			h = mixH(h, mixK(values[i]));
+		}
+		
+		return fmix(h ^ (length*4));
+	}
+	
+	/**
+	 * Hash a single int
+	 * 
+	 * @param value
+	 * @param seed
+	 * @return the hash, the same as hash(new int[]{value}, 0, 1, seed)
+	 */
+	public static int hash(int value, int seed){
+		return fmix(mixH(seed, mixK(value)) ^ 4);
+	}
+	
+	private static int mixK(int k){
+		k *= C1;
+		k = Integer.rotateLeft(k, 15);
+		return k * C2;
+	}
+	
+	private static int mixH(int h, int k){
+		h ^= k;
+		h = Integer.rotateLeft(h, 13);
+		return h*5 + 0xe6546b64;
+	}
+	
+	private static int fmix(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
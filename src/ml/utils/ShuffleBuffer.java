@@ -0,0 +1,71 @@
+package ml.utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Iterates over the items of another iterator in a random order while holding at
+ * most a fixed number of them in memory.  The buffer is filled from the source and
+ * each call to next returns a random item from the buffer, whose place is taken by
+ * the next item of the source.
+ * 
+ * If the buffer is at least as large as the number of items, the order is a
+ * uniformly random permutation.  Otherwise items can only move about a buffer
+ * length from their original position.
+ * 
+ * @author dkauchak
+ * 
+ * @param <T>
+ */
+public class ShuffleBuffer<T> implements Iterator<T>{
+	private Iterator<T> source;
+	private Object[] buffer;
+	private int size = 0;
+	private Random random;
+	
+	/**
+	 * @param source the items to shuffle
+	 * @param capacity the maximum number of items to hold at once
+	 * @param random
+	 */
+	public ShuffleBuffer(Iterator<T> source, int capacity, Random random){
+		this.source = source;
+		this.buffer = new Object[Math.max(1, capacity)];
+		this.random = random;
+		
+		while( size < buffer.length && source.hasNext() ){
+			buffer[size++] = source.next();
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return size > 0;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if( size == 0 ){
+			throw new NoSuchElementException();
+		}
+		
+		int i = random.nextInt(size);
+		T item = (T)buffer[i];
+		
+		if( source.hasNext() ){
+			buffer[i] = source.next();
+		}else{
+			buffer[i] = buffer[--size];
+			buffer[size] = null;
+		}
+		
+		return item;
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}